@@ -11,10 +11,13 @@ import java.util.function.BiFunction;
 
 import com.github.davidmoten.bplustree.internal.Factory;
 import com.github.davidmoten.bplustree.internal.FactoryProvider;
+import com.github.davidmoten.bplustree.internal.Insertion;
 import com.github.davidmoten.bplustree.internal.Leaf;
 import com.github.davidmoten.bplustree.internal.Node;
+import com.github.davidmoten.bplustree.internal.NodeCursor;
 import com.github.davidmoten.bplustree.internal.NonLeaf;
 import com.github.davidmoten.bplustree.internal.Options;
+import com.github.davidmoten.bplustree.internal.Removal;
 import com.github.davidmoten.bplustree.internal.Split;
 import com.github.davidmoten.bplustree.internal.file.FactoryFile;
 import com.github.davidmoten.bplustree.internal.memory.FactoryMemory;
@@ -35,15 +38,56 @@ public final class BPlusTree<K, V> implements AutoCloseable {
      */
     private Node<K, V> root;
 
+    /**
+     * The rightmost leaf of the tree (null if not yet known). Inserts of keys
+     * greater than every key in the tree go straight to this leaf when it has
+     * room.
+     */
+    private Leaf<K, V> rightmostLeaf;
+
+    /**
+     * The non-leaves from the root down to the rightmost leaf with the index and
+     * count of the last child of each so that an append to the rightmost leaf
+     * can update their counts without reading or descending from the root. Only
+     * valid if {@code rightSpineValid} because any other change to the tree may
+     * split these nodes or change their counts.
+     */
+    private final List<NonLeaf<K, V>> rightSpine = new ArrayList<>();
+    private int[] rightSpineLast;
+    private long[] rightSpineCounts;
+    private boolean rightSpineValid;
+
+    /** True if this tree is a read view of another tree. */
+    private final boolean readView;
+
+    // reused by every findFirst so that lookups don't allocate node objects
+    private final NodeCursor<K, V> lookupCursor;
+
+    // reused by every insert to learn whether an entry was added
+    private final Insertion insertion = new Insertion();
+
     /** Create a new empty tree. */
-    private BPlusTree(int maxLeafKeys, int maxInnerKeys, boolean uniqueKeys, Runnable onClose,
+    private BPlusTree(int maxLeafKeys, int maxInnerKeys, boolean uniqueKeys, boolean appendOptimizedSplits,
+            Runnable onClose,
             Comparator<? super K> comparator, FactoryProvider<K, V> factoryProvider) {
-        this.options = new Options<K, V>(maxLeafKeys, maxInnerKeys, uniqueKeys, comparator, factoryProvider);
+        this.options = new Options<K, V>(maxLeafKeys, maxInnerKeys, uniqueKeys, appendOptimizedSplits, comparator,
+                factoryProvider);
         this.factory = options.factoryProvider().createFactory(options);
         this.root = factory.loadOrCreateRoot();
+        this.readView = false;
+        this.lookupCursor = factory.cursor();
         factory.root(root);
     }
 
+    /** Create a read view using the given read view factory. */
+    private BPlusTree(Options<K, V> options, Factory<K, V> factory) {
+        this.options = options;
+        this.factory = factory;
+        this.root = factory.loadOrCreateRoot();
+        this.readView = true;
+        this.lookupCursor = factory.cursor();
+    }
+
     public static Builder memory() {
         return new Builder();
     }
@@ -76,6 +120,17 @@ public final class BPlusTree<K, V> implements AutoCloseable {
         int maxLeafKeys = MAX_KEYS_NOT_SPECIFIED;
         int maxNonLeafKeys = MAX_KEYS_NOT_SPECIFIED;
         boolean uniqueKeys = false;
+        boolean appendOptimizedSplits = false;
+        int maxMappedSegments = 0;
+        int preallocateSegments = 0;
+        boolean preFaultSegments = false;
+        int nodeAlignmentBytes = 0;
+        int nodeSizeBytes = 0;
+        // 0 if value compaction is not configured
+        double valueCompactionDeadRatio = 0;
+        int valueCompactionLeavesPerInsert = 0;
+        int pinnedLevels = 0;
+        long valueCacheBytes = 0;
         Runnable onClose;
 
         BuilderFile2(File directory) {
@@ -108,6 +163,158 @@ public final class BPlusTree<K, V> implements AutoCloseable {
             return segmentSizeBytes(size * 1024 * 1024);
         }
 
+        /**
+         * Sets the maximum number of segments of each of the index and value files
+         * that are memory mapped at any one time. When the limit is reached the
+         * least recently used segment is unmapped (it will be mapped again on
+         * demand). The segments holding the upper levels of the tree are never
+         * unmapped. The same limit applies to each temporary run file set written
+         * by {@link BPlusTree#bulkImport(Iterator, int)}. The default is 0 which
+         * means no limit.
+         * 
+         * @param maxMappedSegments maximum number of mapped segments per file set,
+         *                          0 for no limit
+         * @return this
+         */
+        public BuilderFile2 maxMappedSegments(int maxMappedSegments) {
+            Preconditions.checkArgument(maxMappedSegments >= 0);
+            this.maxMappedSegments = maxMappedSegments;
+            return this;
+        }
+
+        /**
+         * Sets the number of segments of each of the index and value files to create
+         * and memory map ahead of time on a background thread. When a write first
+         * reaches a new segment the following {@code numSegments} segments are
+         * prepared in the background so that the writer doesn't wait on file
+         * creation and mapping when it crosses into them. Preallocated segments
+         * count towards {@link #maxMappedSegments(int)} and their files are deleted
+         * on close if nothing was written to them. The default is 0 (no
+         * preallocation).
+         * 
+         * @param numSegments number of segments to prepare ahead of the writer
+         * @return this
+         */
+        public BuilderFile2 preallocateSegments(int numSegments) {
+            return preallocateSegments(numSegments, false);
+        }
+
+        /**
+         * Sets the number of segments of each of the index and value files to create
+         * and memory map ahead of time on a background thread (see
+         * {@link #preallocateSegments(int)}).
+         * 
+         * @param numSegments number of segments to prepare ahead of the writer
+         * @param preFault    if true the pages of the preallocated segments are
+         *                    also loaded into physical memory in the background
+         * @return this
+         */
+        public BuilderFile2 preallocateSegments(int numSegments, boolean preFault) {
+            Preconditions.checkArgument(numSegments >= 0);
+            this.preallocateSegments = numSegments;
+            this.preFaultSegments = preFault;
+            return this;
+        }
+
+        /**
+         * Places every node of the index so that it doesn't straddle a multiple of
+         * {@code alignmentBytes} (for example 4096 for an OS page or 64 for a cache
+         * line) or a segment boundary. A node larger than the alignment starts on
+         * a boundary. Aligned nodes touch fewer pages per read and avoid the slower
+         * paths for values split across segments, at the cost of some unused
+         * space. The segment size must be a multiple of the alignment. The default
+         * is 0 which packs nodes back to back.
+         * 
+         * @param alignmentBytes node alignment in bytes, 0 for none
+         * @return this
+         */
+        public BuilderFile2 nodeAlignmentBytes(int alignmentBytes) {
+            Preconditions.checkArgument(alignmentBytes >= 0);
+            this.nodeAlignmentBytes = alignmentBytes;
+            return this;
+        }
+
+        /**
+         * Sizes nodes in bytes rather than in keys. The maximum number of keys of
+         * leaf and non-leaf nodes is derived from {@code nodeSizeBytes} and the
+         * serializers' {@code maxSize()} so that a node is no bigger than
+         * {@code nodeSizeBytes} (at most 65535 keys). Explicitly set maximum keys
+         * take precedence. Combine with {@link #nodeAlignmentBytes(int)} using the
+         * same value so that every node occupies exactly one page.
+         * 
+         * @param nodeSizeBytes maximum size of a node in bytes (for example 4096)
+         * @return this
+         */
+        public BuilderFile2 nodeSizeBytes(int nodeSizeBytes) {
+            Preconditions.checkArgument(nodeSizeBytes > 0);
+            this.nodeSizeBytes = nodeSizeBytes;
+            return this;
+        }
+
+        /**
+         * Configures compaction of the value files. Overwritten and removed values
+         * leave dead bytes behind and a value segment whose proportion of dead
+         * bytes reaches {@code minDeadRatio} has its live values rewritten at the
+         * end of the value files so that its file can be deleted. If
+         * {@code leavesPerInsert} is positive then every insert does a little of
+         * this work by examining up to that many leaves and the files of compacted
+         * segments are deleted by the next {@link BPlusTree#commit()}, otherwise
+         * compaction only happens when {@link BPlusTree#compactValues()} is
+         * called. Dead bytes are only counted while this is configured, because
+         * counting them reads every overwritten or removed value, and are stored
+         * on commit so that they survive reopening the tree. Has no effect when
+         * values are stored in the leaves (fixed size values of at most 8 bytes).
+         * 
+         * @param minDeadRatio    proportion of dead bytes in a segment at which it
+         *                        is compacted, greater than 0 and at most 1
+         * @param leavesPerInsert number of leaves to examine per insert, 0 for none
+         * @return this
+         */
+        public BuilderFile2 valueCompaction(double minDeadRatio, int leavesPerInsert) {
+            Preconditions.checkArgument(minDeadRatio > 0 && minDeadRatio <= 1);
+            Preconditions.checkArgument(leavesPerInsert >= 0);
+            this.valueCompactionDeadRatio = minDeadRatio;
+            this.valueCompactionLeavesPerInsert = leavesPerInsert;
+            return this;
+        }
+
+        /**
+         * Keeps the non-leaf nodes in the top {@code levels} levels of the tree
+         * decoded on the heap (keys and child positions) so that a search only
+         * reads the index below those levels. Nodes are decoded as searches reach
+         * them and decoded again after they change. The memory used is roughly
+         * the size of the pinned part of the index. Read views don't pin. The
+         * default is 0 (no levels pinned).
+         * 
+         * @param levels number of levels below and including the root to keep on
+         *               the heap
+         * @return this
+         */
+        public BuilderFile2 pinnedLevels(int levels) {
+            Preconditions.checkArgument(levels >= 0);
+            this.pinnedLevels = levels;
+            return this;
+        }
+
+        /**
+         * Caches deserialized values on the heap up to a total of about
+         * {@code bytes} (measured by serialized size) so that values that are
+         * read repeatedly are not deserialized again. Admission and eviction are
+         * frequency aware (W-TinyLFU) so a scan of values read once doesn't flush
+         * frequently read values. Cached values are shared between reads so they
+         * shouldn't be modified. Each read view has its own cache of the same
+         * size. Has no effect when values are stored in the leaves (fixed size
+         * values of at most 8 bytes). The default is 0 (no cache).
+         * 
+         * @param bytes maximum size of the value cache in bytes, 0 for none
+         * @return this
+         */
+        public BuilderFile2 valueCacheBytes(long bytes) {
+            Preconditions.checkArgument(bytes >= 0);
+            this.valueCacheBytes = bytes;
+            return this;
+        }
+
         public BuilderFile2 maxLeafKeys(int maxLeafKeys) {
             this.maxLeafKeys = maxLeafKeys;
             return this;
@@ -127,6 +334,27 @@ public final class BPlusTree<K, V> implements AutoCloseable {
             return uniqueKeys(true);
         }
 
+        /**
+         * Sets whether a full node that is receiving a key at its right edge (as
+         * happens when keys are inserted in ascending order) is split so that the
+         * left node stays as full as possible instead of being split in half. With
+         * ascending keys this leaves nodes nearly full rather than half full which
+         * roughly halves the size of the index. Splits elsewhere are unaffected.
+         * The default is false.
+         * 
+         * @param appendOptimizedSplits if true use the append optimized split
+         *                              policy
+         * @return this
+         */
+        public BuilderFile2 appendOptimizedSplits(boolean appendOptimizedSplits) {
+            this.appendOptimizedSplits = appendOptimizedSplits;
+            return this;
+        }
+
+        public BuilderFile2 appendOptimizedSplits() {
+            return appendOptimizedSplits(true);
+        }
+
         public BuilderFile2 maxKeys(int maxKeys) {
             maxLeafKeys(maxKeys);
             return maxNonLeafKeys(maxKeys);
@@ -181,8 +409,19 @@ public final class BPlusTree<K, V> implements AutoCloseable {
 
         public BPlusTree<K, V> comparator(Comparator<? super K> comparator) {
             FactoryProvider<K, V> factoryProvider = options -> new FactoryFile<K, V>(options, b.directory,
-                    keySerializer, valueSerializer, b.segmentSizeBytes, b.onClose);
-
+                    keySerializer, valueSerializer, b.segmentSizeBytes, b.maxMappedSegments, b.preallocateSegments,
+                    b.preFaultSegments, b.nodeAlignmentBytes, b.valueCompactionDeadRatio,
+                    b.valueCompactionLeavesPerInsert, b.pinnedLevels, b.valueCacheBytes, b.onClose);
+
+            if (b.nodeSizeBytes > 0) {
+                if (b.maxLeafKeys == MAX_KEYS_NOT_SPECIFIED) {
+                    b.maxLeafKeys = FactoryFile.maxLeafKeys(b.nodeSizeBytes, keySerializer,
+                            valueSerializer);
+                }
+                if (b.maxNonLeafKeys == MAX_KEYS_NOT_SPECIFIED) {
+                    b.maxNonLeafKeys = FactoryFile.maxNonLeafKeys(b.nodeSizeBytes, keySerializer);
+                }
+            }
             if (b.maxLeafKeys == MAX_KEYS_NOT_SPECIFIED) {
                 if (b.maxNonLeafKeys == MAX_KEYS_NOT_SPECIFIED) {
                     b.maxLeafKeys = DEFAULT_NUM_KEYS;
@@ -194,7 +433,8 @@ public final class BPlusTree<K, V> implements AutoCloseable {
                 b.maxNonLeafKeys = b.maxLeafKeys;
             }
 
-            return new BPlusTree<K, V>(b.maxLeafKeys, b.maxNonLeafKeys, b.uniqueKeys, b.onClose, comparator,
+            return new BPlusTree<K, V>(b.maxLeafKeys, b.maxNonLeafKeys, b.uniqueKeys, b.appendOptimizedSplits,
+                    b.onClose, comparator,
                     factoryProvider);
         }
 
@@ -207,6 +447,8 @@ public final class BPlusTree<K, V> implements AutoCloseable {
 
         private boolean uniqueKeys = false;
 
+        private boolean appendOptimizedSplits = false;
+
         Builder() {
             // prevent instantiation
         }
@@ -240,6 +482,27 @@ public final class BPlusTree<K, V> implements AutoCloseable {
             return uniqueKeys(true);
         }
 
+        /**
+         * Sets whether a full node that is receiving a key at its right edge (as
+         * happens when keys are inserted in ascending order) is split so that the
+         * left node stays as full as possible instead of being split in half. With
+         * ascending keys this leaves nodes nearly full rather than half full which
+         * roughly halves the size of the index. Splits elsewhere are unaffected.
+         * The default is false.
+         * 
+         * @param appendOptimizedSplits if true use the append optimized split
+         *                              policy
+         * @return this
+         */
+        public Builder appendOptimizedSplits(boolean appendOptimizedSplits) {
+            this.appendOptimizedSplits = appendOptimizedSplits;
+            return this;
+        }
+
+        public Builder appendOptimizedSplits() {
+            return appendOptimizedSplits(true);
+        }
+
         public <K, V> BPlusTree<K, V> comparator(Comparator<? super K> comparator) {
             FactoryProvider<K, V> factoryProvider = options -> new FactoryMemory<K, V>(options);
             if (maxLeafKeys == MAX_KEYS_NOT_SPECIFIED) {
@@ -253,13 +516,32 @@ public final class BPlusTree<K, V> implements AutoCloseable {
                 maxInnerKeys = maxLeafKeys;
             }
 
-            return new BPlusTree<K, V>(maxLeafKeys, maxInnerKeys, uniqueKeys, null, comparator, factoryProvider);
+            return new BPlusTree<K, V>(maxLeafKeys, maxInnerKeys, uniqueKeys, appendOptimizedSplits, null,
+                    comparator, factoryProvider);
         }
 
     }
 
     public void insert(K key, V value) {
-        Split<K, V> result = root.insert(key, value);
+        checkNotReadView();
+        if (rightmostLeaf == null) {
+            rightmostLeaf = lastLeaf(root);
+        }
+        int numKeys = rightmostLeaf.numKeys();
+        if (numKeys > 0 && numKeys < options.maxLeafKeys()
+                && options.comparator().compare(key, rightmostLeaf.key(numKeys - 1)) > 0) {
+            // append to the rightmost leaf without descending from the root
+            rightmostLeaf.insert(numKeys, key, value);
+            incrementLastCounts();
+            factory.afterInsert();
+            return;
+        }
+        Split<K, V> result = root.insert(key, value, insertion);
+        rightSpineValid = false;
+        if (rightmostLeaf.next() != null) {
+            // the rightmost leaf was split
+            rightmostLeaf = null;
+        }
         if (result != null) {
             // The root is split into two parts.
             // We create a new root pointing to them
@@ -270,11 +552,350 @@ public final class BPlusTree<K, V> implements AutoCloseable {
             node.setKey(0, result.key);
             node.setChild(0, result.left);
             node.setChild(1, result.right);
+            node.setCount(0, result.left.count());
+            node.setCount(1, result.right.count());
             root = node;
             factory.root(root);
             // commit changing the root node which shouldn't happen very often
             factory.commit();
         }
+        factory.afterInsert();
+    }
+
+    /**
+     * Adds one to the count of the last child of every node on the right edge of
+     * the tree after an entry is appended to the rightmost leaf.
+     */
+    private void incrementLastCounts() {
+        if (!rightSpineValid) {
+            rightSpine.clear();
+            Node<K, V> node = root;
+            while (node instanceof NonLeaf) {
+                NonLeaf<K, V> inner = (NonLeaf<K, V>) node;
+                rightSpine.add(inner);
+                node = inner.child(inner.numKeys());
+            }
+            rightSpineLast = new int[rightSpine.size()];
+            rightSpineCounts = new long[rightSpine.size()];
+            for (int i = 0; i < rightSpine.size(); i++) {
+                rightSpineLast[i] = rightSpine.get(i).numKeys();
+                rightSpineCounts[i] = rightSpine.get(i).count(rightSpineLast[i]);
+            }
+            rightSpineValid = true;
+        }
+        for (int i = 0; i < rightSpine.size(); i++) {
+            rightSpine.get(i).setCount(rightSpineLast[i], ++rightSpineCounts[i]);
+        }
+    }
+
+    /**
+     * Inserts the given entries. The entries are sorted by key and then each run
+     * of consecutive entries that belongs in the same leaf is inserted into that
+     * leaf without descending from the root again. The result is the same as
+     * inserting the entries one by one in key order.
+     * 
+     * @param entries entries in any order
+     */
+    public void insertAll(Iterable<Entry<K, V>> entries) {
+        checkNotReadView();
+        Comparator<? super K> comparator = options.comparator();
+        List<Entry<K, V>> list = new ArrayList<>();
+        for (Entry<K, V> entry : entries) {
+            list.add(entry);
+        }
+        list.sort((a, b) -> comparator.compare(a.key(), b.key()));
+        Leaf<K, V> leaf = null;
+        // keys belonging to leaf are less than this key (null means no bound)
+        K upperBound = null;
+        // the nodes above leaf and the index of the child followed in each
+        List<NonLeaf<K, V>> path = new ArrayList<>();
+        List<Integer> pathIndexes = new ArrayList<>();
+        // entries added to leaf but not yet to the counts of the path
+        long added = 0;
+        for (Entry<K, V> entry : list) {
+            K key = entry.key();
+            if (leaf == null || (upperBound != null && comparator.compare(key, upperBound) >= 0)) {
+                addToCounts(path, pathIndexes, added);
+                added = 0;
+                upperBound = null;
+                Node<K, V> node = root;
+                while (node instanceof NonLeaf) {
+                    NonLeaf<K, V> inner = (NonLeaf<K, V>) node;
+                    int idx = inner.getLocation(key);
+                    if (idx < inner.numKeys()) {
+                        upperBound = inner.key(idx);
+                    }
+                    path.add(inner);
+                    pathIndexes.add(idx);
+                    node = inner.child(idx);
+                }
+                leaf = (Leaf<K, V>) node;
+            }
+            if (leaf.numKeys() < options.maxLeafKeys()) {
+                // won't split so the leaf and its bound stay valid
+                leaf.insert(key, entry.value(), insertion);
+                if (insertion.added()) {
+                    added++;
+                }
+                factory.afterInsert();
+            } else {
+                addToCounts(path, pathIndexes, added);
+                added = 0;
+                insert(key, entry.value());
+                leaf = null;
+            }
+        }
+        addToCounts(path, pathIndexes, added);
+    }
+
+    private void addToCounts(List<NonLeaf<K, V>> path, List<Integer> pathIndexes, long added) {
+        if (added > 0) {
+            rightSpineValid = false;
+            for (int i = 0; i < path.size(); i++) {
+                NonLeaf<K, V> node = path.get(i);
+                int idx = pathIndexes.get(i);
+                node.setCount(idx, node.count(idx) + added);
+            }
+        }
+        path.clear();
+        pathIndexes.clear();
+    }
+
+    /**
+     * Removes all entries with the given key.
+     * 
+     * @param key key to remove
+     * @return number of entries removed
+     */
+    public long remove(K key) {
+        return removeRange(key, key, true);
+    }
+
+    /**
+     * Removes one entry with the given key and value.
+     * 
+     * @param key   key of the entry to remove
+     * @param value value of the entry to remove
+     * @return true if an entry was removed
+     */
+    public boolean remove(K key, V value) {
+        Preconditions.checkNotNull(value, "value cannot be null");
+        return remove(new Removal<K, V>(key, key, true, value, 1)) == 1;
+    }
+
+    /**
+     * Removes all entries whose keys are &gt;= start and &lt; finish. Leaves and
+     * non-leaves that lie wholly in the range are unlinked and freed without
+     * reading their entries (unless value compaction is configured, in which
+     * case the size of each removed value is read to count its dead bytes).
+     * 
+     * @param startInclusive  inclusive start of the range
+     * @param finishExclusive exclusive end of the range
+     * @return number of entries removed
+     */
+    public long removeRange(K startInclusive, K finishExclusive) {
+        return removeRange(startInclusive, finishExclusive, false);
+    }
+
+    /**
+     * Removes all entries whose keys are &gt;= start and &lt; finish (or &lt;=
+     * finish if {@code isFinishInclusive} is true).
+     * 
+     * @param startInclusive    inclusive start of the range
+     * @param finish            end of the range
+     * @param isFinishInclusive whether finish is included in the range
+     * @return number of entries removed
+     */
+    public long removeRange(K startInclusive, K finish, boolean isFinishInclusive) {
+        return remove(new Removal<K, V>(startInclusive, finish, isFinishInclusive, null, Long.MAX_VALUE));
+    }
+
+    private long remove(Removal<K, V> removal) {
+        checkNotReadView();
+        int c = options.comparator().compare(removal.start, removal.finish);
+        if (c > 0 || (c == 0 && !removal.finishInclusive)) {
+            return 0;
+        }
+        long count = root.remove(removal);
+        // the rightmost leaf may have been merged away
+        rightmostLeaf = null;
+        rightSpineValid = false;
+        if (root instanceof NonLeaf && root.numKeys() == 0) {
+            // the root has a single child so remove levels until it doesn't
+            while (root instanceof NonLeaf && root.numKeys() == 0) {
+                Node<K, V> node = root;
+                root = ((NonLeaf<K, V>) node).child(0);
+                factory.free(node);
+            }
+            factory.root(root);
+            // commit changing the root node which shouldn't happen very often
+            factory.commit();
+        }
+        return count;
+    }
+
+    /**
+     * Loads the given entries (which must be in ascending key order) into this
+     * tree which must be empty. Leaves are filled completely and written in
+     * order then the levels above them are built as the leaves are written so
+     * this is much faster than inserting the entries one by one.
+     * 
+     * @param entries entries in ascending key order
+     * @return this
+     * @throws IllegalArgumentException if the entries are not in ascending key
+     *                                  order
+     * @throws IllegalStateException    if the tree is not empty
+     */
+    public BPlusTree<K, V> bulkLoad(Iterator<Entry<K, V>> entries) {
+        return bulkLoad(entries, 1.0);
+    }
+
+    /**
+     * Loads the given entries (which must be in ascending key order) into this
+     * tree which must be empty. Leaves and non-leaves are filled to the given
+     * proportion of their maximum keys and written in order. The levels above
+     * the leaves are built as the leaves are written. A fill factor less than 1
+     * leaves room in each node for later inserts without splitting.
+     * 
+     * @param entries    entries in ascending key order
+     * @param fillFactor proportion of the maximum keys to put in each node, in
+     *                   the range (0, 1]
+     * @return this
+     * @throws IllegalArgumentException if the entries are not in ascending key
+     *                                  order
+     * @throws IllegalStateException    if the tree is not empty
+     */
+    public BPlusTree<K, V> bulkLoad(Iterator<Entry<K, V>> entries, double fillFactor) {
+        checkNotReadView();
+        Preconditions.checkArgument(fillFactor > 0 && fillFactor <= 1, "fillFactor must be in the range (0, 1]");
+        if (!(root instanceof Leaf) || root.numKeys() != 0) {
+            throw new IllegalStateException("tree must be empty to bulk load");
+        }
+        int maxLeafKeys = Math.max(1, (int) Math.round(options.maxLeafKeys() * fillFactor));
+        int maxNonLeafKeys = Math.max(1, (int) Math.round(options.maxNonLeafKeys() * fillFactor));
+        // the last node of each level above the leaves
+        List<NonLeaf<K, V>> parents = new ArrayList<>();
+        Leaf<K, V> leaf = (Leaf<K, V>) root;
+        int numKeys = 0;
+        K last = null;
+        while (entries.hasNext()) {
+            Entry<K, V> entry = entries.next();
+            K key = entry.key();
+            if (last != null) {
+                int c = options.comparator().compare(key, last);
+                if (c < 0) {
+                    throw new IllegalArgumentException("entries must be in ascending key order but " + key
+                            + " was after " + last);
+                } else if (c == 0 && options.uniqueKeys()) {
+                    leaf.setValue(numKeys - 1, entry.value());
+                    continue;
+                }
+            }
+            if (numKeys == maxLeafKeys) {
+                Leaf<K, V> next = factory.createLeaf();
+                leaf.setNext(next);
+                next.setPrevious(leaf);
+                addToParent(parents, 0, leaf, numKeys, key, next, maxNonLeafKeys);
+                leaf = next;
+                numKeys = 0;
+            }
+            leaf.insert(numKeys, key, entry.value());
+            numKeys++;
+            last = key;
+        }
+        if (!parents.isEmpty()) {
+            // the count of the last child of each level's last node is only known
+            // now
+            long count = numKeys;
+            for (NonLeaf<K, V> parent : parents) {
+                parent.setCount(parent.numKeys(), count);
+                count = parent.count();
+            }
+            // the last node of each level can have few keys (a non-leaf can have
+            // none) so balance it with its left sibling from the leaves up as a
+            // removal does (which keeps the counts)
+            for (NonLeaf<K, V> parent : parents) {
+                parent.rebalance(parent.numKeys());
+            }
+            // merging may leave the top levels with a single child
+            Node<K, V> node = parents.get(parents.size() - 1);
+            while (node instanceof NonLeaf && node.numKeys() == 0) {
+                Node<K, V> child = ((NonLeaf<K, V>) node).child(0);
+                factory.free(node);
+                node = child;
+            }
+            root = node;
+            factory.root(root);
+        }
+        rightmostLeaf = null;
+        rightSpineValid = false;
+        factory.commit();
+        return this;
+    }
+
+    /**
+     * Loads the given entries (in any order) into this tree which must be empty.
+     * The entries are sorted in runs of at most half of
+     * {@code maxEntriesInMemory} entries using a parallel sort. For a file based
+     * tree the runs are written to temporary files in the tree's directory (while
+     * the next run is sorted) and then merged. The merged entries are loaded as
+     * per {@link #bulkLoad(Iterator)}. Entries with equal keys are loaded in
+     * input order so for unique keys the last value wins.
+     * 
+     * @param entries            entries in any order
+     * @param maxEntriesInMemory maximum number of entries held in memory while
+     *                           sorting (ignored by an in-memory tree)
+     * @return this
+     * @throws IllegalStateException if the tree is not empty
+     */
+    public BPlusTree<K, V> bulkImport(Iterator<Entry<K, V>> entries, int maxEntriesInMemory) {
+        checkNotReadView();
+        if (!(root instanceof Leaf) || root.numKeys() != 0) {
+            throw new IllegalStateException("tree must be empty to bulk import");
+        }
+        factory.sort(entries, maxEntriesInMemory, sorted -> bulkLoad(sorted));
+        return this;
+    }
+
+    /**
+     * Adds {@code key} and its right child {@code right} to the last node of the
+     * given level above the leaves creating new nodes and levels as required.
+     * {@code left} is the current last child of that node, which is complete and
+     * has {@code leftCount} entries under it. The count of {@code right} is set
+     * when it is complete.
+     */
+    private void addToParent(List<NonLeaf<K, V>> parents, int level, Node<K, V> left, long leftCount, K key,
+            Node<K, V> right, int maxNonLeafKeys) {
+        if (level == parents.size()) {
+            // new root level
+            NonLeaf<K, V> node = factory.createNonLeaf();
+            node.setNumKeys(1);
+            node.setKey(0, key);
+            node.setChild(0, left);
+            node.setCount(0, leftCount);
+            node.setChild(1, right);
+            node.setCount(1, 0);
+            parents.add(node);
+        } else {
+            NonLeaf<K, V> node = parents.get(level);
+            int n = node.numKeys();
+            node.setCount(n, leftCount);
+            if (n < maxNonLeafKeys) {
+                node.setKey(n, key);
+                node.setChild(n + 1, right);
+                node.setCount(n + 1, 0);
+                node.setNumKeys(n + 1);
+            } else {
+                // node is full and complete so key moves up to separate node from
+                // its new sibling
+                NonLeaf<K, V> sibling = factory.createNonLeaf();
+                sibling.setNumKeys(0);
+                sibling.setChild(0, right);
+                sibling.setCount(0, 0);
+                parents.set(level, sibling);
+                addToParent(parents, level + 1, node, node.count(), key, sibling, maxNonLeafKeys);
+            }
+        }
     }
 
     /**
@@ -286,7 +907,7 @@ public final class BPlusTree<K, V> implements AutoCloseable {
      * @return the first matching value or null if not found
      */
     public V findFirst(K key) {
-        Leaf<K, V> leaf = findFirstLeaf(key);
+        Leaf<K, V> leaf = findFirstLeaf(key, lookupCursor);
         int idx = leaf.getLocation(key);
         if (idx < leaf.numKeys() && leaf.key(idx).equals(key)) {
             return leaf.value(idx);
@@ -300,12 +921,12 @@ public final class BPlusTree<K, V> implements AutoCloseable {
         return find(key, key, true);
     }
 
-    private Leaf<K, V> findFirstLeaf(K key) {
-        Node<K, V> node = root;
+    private Leaf<K, V> findFirstLeaf(K key, NodeCursor<K, V> cursor) {
+        Node<K, V> node = cursor.start(root);
         while (node instanceof NonLeaf) { // need to traverse down to the leaf
             NonLeaf<K, V> inner = (NonLeaf<K, V>) node;
             int idx = inner.getLocation(key);
-            node = inner.child(idx);
+            node = cursor.child(inner, idx);
         }
         return (Leaf<K, V>) node;
     }
@@ -339,68 +960,430 @@ public final class BPlusTree<K, V> implements AutoCloseable {
 
     public <R> Iterable<R> find(K startInclusive, K finish, boolean isFinishInclusive,
             BiFunction<? super K, ? super V, ? extends R> mapper) {
-        return new Iterable<R>() {
+        return find(startInclusive, finish, isFinishInclusive, 0, Long.MAX_VALUE, mapper);
+    }
 
-            @Override
-            public Iterator<R> iterator() {
-                return new Iterator<R>() {
-                    Leaf<K, V> leaf = findFirstLeaf(startInclusive);
-                    int numKeys = leaf.numKeys();
-                    int idx = leaf.getLocation(startInclusive);
-                    R value;
+    /**
+     * Returns at most {@code limit} values whose keys are &gt;= start and &lt;
+     * finish (&lt;= finish if {@code isFinishInclusive}) in key order after
+     * skipping the first {@code offset} of them. The skipped entries are not
+     * read: the scan starts at the entry with index {@code offset} in the range
+     * which is found by descending from the root using the entry counts held for
+     * each subtree so whole subtrees are skipped at once.
+     * 
+     * @param startInclusive    inclusive end of search
+     * @param finish            end of search
+     * @param isFinishInclusive whether finish is included in the search
+     * @param offset            number of entries in range to skip
+     * @param limit             maximum number of values to return
+     * @return values in range after skipping {@code offset} of them
+     */
+    public Iterable<V> find(K startInclusive, K finish, boolean isFinishInclusive, long offset, long limit) {
+        return find(startInclusive, finish, isFinishInclusive, offset, limit, (k, v) -> v);
+    }
 
-                    @Override
-                    public boolean hasNext() {
-                        load();
-                        return value != null;
-                    }
+    public Iterable<Entry<K, V>> findEntries(K startInclusive, K finish, boolean isFinishInclusive, long offset,
+            long limit) {
+        return find(startInclusive, finish, isFinishInclusive, offset, limit, (k, v) -> Entry.create(k, v));
+    }
 
-                    @Override
-                    public R next() {
-                        load();
-                        R v = value;
-                        value = null;
-                        if (v == null) {
-                            throw new NoSuchElementException();
-                        } else {
-                            return v;
-                        }
-                    }
+    public <R> Iterable<R> find(K startInclusive, K finish, boolean isFinishInclusive, long offset, long limit,
+            BiFunction<? super K, ? super V, ? extends R> mapper) {
+        Preconditions.checkArgument(offset >= 0, "offset cannot be negative");
+        Preconditions.checkArgument(limit >= 0, "limit cannot be negative");
+        return scan(startInclusive, finish, isFinishInclusive, offset, limit,
+                (k, leaf, i) -> mapper.apply(k, leaf.value(i)));
+    }
 
-                    private void load() {
-                        if (value != null) {
-                            return;
-                        }
-                        while (true) {
-                            if (leaf == null) {
-                                return;
-                            } else if (idx < numKeys) {
-                                K key = leaf.key(idx);
-                                int c = options.comparator().compare(key, finish);
-                                if (c < 0 || (c == 0 && isFinishInclusive)) {
-                                    value = mapper.apply(key, leaf.value(idx));
-                                    idx++;
-                                } else {
-                                    // don't search further
-                                    leaf = null;
-                                }
-                                return;
-                            } else {
-                                leaf = leaf.next();
-                                if (leaf != null) {
-                                    numKeys = leaf.numKeys();
-                                }
-                                idx = 0;
-                            }
-                        }
+    /**
+     * Returns the keys that are &gt;= start and &lt; finish in ascending order
+     * without reading any values.
+     * 
+     * @param startInclusive  inclusive end of search
+     * @param finishExclusive exclusive end of search
+     * @return keys &gt;= start and &lt; finish in ascending order
+     */
+    public Iterable<K> findKeys(K startInclusive, K finishExclusive) {
+        return findKeys(startInclusive, finishExclusive, false);
+    }
+
+    public Iterable<K> findKeys(K startInclusive, K finish, boolean isFinishInclusive) {
+        return scan(startInclusive, finish, isFinishInclusive, 0, Long.MAX_VALUE, (k, leaf, i) -> k);
+    }
+
+    /**
+     * Returns the entries whose keys are &gt;= start and &lt; finish in ascending
+     * key order where a value is only read when {@link LazyEntry#value()} is
+     * called. Useful when the keys decide which values are wanted.
+     * 
+     * @param startInclusive  inclusive end of search
+     * @param finishExclusive exclusive end of search
+     * @return entries whose keys are &gt;= start and &lt; finish with lazily read
+     *         values
+     */
+    public Iterable<LazyEntry<K, V>> findLazyEntries(K startInclusive, K finishExclusive) {
+        return findLazyEntries(startInclusive, finishExclusive, false);
+    }
+
+    public Iterable<LazyEntry<K, V>> findLazyEntries(K startInclusive, K finish, boolean isFinishInclusive) {
+        return scan(startInclusive, finish, isFinishInclusive, 0, Long.MAX_VALUE,
+                (k, leaf, i) -> LazyEntry.create(k, leaf.lazyValue(i)));
+    }
+
+    /**
+     * Returns the number of entries whose keys are &gt;= start and &lt; finish.
+     * Uses the entry counts held for each subtree so only the nodes on the paths
+     * to the ends of the range are read, regardless of the size of the range.
+     * 
+     * @param startInclusive  inclusive end of range
+     * @param finishExclusive exclusive end of range
+     * @return number of entries in the range
+     */
+    public long count(K startInclusive, K finishExclusive) {
+        return count(startInclusive, finishExclusive, false);
+    }
+
+    public long count(K startInclusive, K finish, boolean isFinishInclusive) {
+        return Math.max(0, rank(finish, isFinishInclusive) - rank(startInclusive));
+    }
+
+    /**
+     * Returns the number of entries whose keys are &lt; {@code key}, which is the
+     * index in key order of the first entry with a key &gt;= {@code key}. Runs in
+     * time proportional to the height of the tree.
+     * 
+     * @param key key
+     * @return number of entries with keys less than {@code key}
+     */
+    public long rank(K key) {
+        return rank(key, false);
+    }
+
+    /**
+     * Returns the number of entries whose keys are &lt; {@code key} (&lt;=
+     * {@code key} if {@code inclusive}).
+     * 
+     * @param key       key
+     * @param inclusive whether entries with keys equal to {@code key} are counted
+     * @return number of entries before {@code key}
+     */
+    public long rank(K key, boolean inclusive) {
+        return rank(key, inclusive, lookupCursor);
+    }
+
+    private long rank(K key, boolean inclusive, NodeCursor<K, V> cursor) {
+        Node<K, V> node = cursor.start(root);
+        long rank = 0;
+        while (node instanceof NonLeaf) {
+            NonLeaf<K, V> inner = (NonLeaf<K, V>) node;
+            // children to the left of the chosen one only hold keys before key
+            // (even when keys are not unique) and children to the right only
+            // keys after it
+            int idx = inner.getLocation(key, !inclusive);
+            for (int i = 0; i < idx; i++) {
+                rank += inner.count(i);
+            }
+            node = cursor.child(inner, idx);
+        }
+        return rank + node.getLocation(key, !inclusive);
+    }
+
+    /**
+     * Returns the entry with the given index in key order (the entry with index
+     * 0 has the least key) or null if there are not that many entries. Runs in
+     * time proportional to the height of the tree.
+     * 
+     * @param index index of the entry in key order
+     * @return entry at the index or null
+     */
+    public Entry<K, V> select(long index) {
+        Preconditions.checkArgument(index >= 0, "index cannot be negative");
+        AscendingIterator<Entry<K, V>> it = new AscendingIterator<Entry<K, V>>(lookupCursor, null, false, 1,
+                (k, leaf, i) -> Entry.create(k, leaf.value(i)));
+        it.startAtIndex(index);
+        return it.hasNext() ? it.next() : null;
+    }
+
+    /**
+     * Maps the entry at index {@code i} of a leaf, whose key has already been
+     * read, to an element of a scan.
+     */
+    @FunctionalInterface
+    private interface LeafMapper<K, V, R> {
+        R apply(K key, Leaf<K, V> leaf, int i);
+    }
+
+    private <R> Iterable<R> scan(K startInclusive, K finish, boolean isFinishInclusive, long offset, long limit,
+            LeafMapper<K, V, ? extends R> mapper) {
+        return () -> {
+            AscendingIterator<R> it = new AscendingIterator<R>(factory.cursor(), finish, isFinishInclusive, limit,
+                    mapper);
+            if (offset == 0) {
+                it.startAtKey(startInclusive);
+            } else {
+                it.startAtIndex(rank(startInclusive, false, it.cursor) + offset);
+            }
+            return it;
+        };
+    }
+
+    private final class AscendingIterator<R> implements Iterator<R> {
+
+        private final NodeCursor<K, V> cursor;
+        // null means no bound
+        private final K finish;
+        private final boolean isFinishInclusive;
+        private final LeafMapper<K, V, ? extends R> mapper;
+        private Leaf<K, V> leaf;
+        private int numKeys;
+        private int idx;
+        private long remaining;
+        private R value;
+
+        AscendingIterator(NodeCursor<K, V> cursor, K finish, boolean isFinishInclusive, long limit,
+                LeafMapper<K, V, ? extends R> mapper) {
+            this.cursor = cursor;
+            this.finish = finish;
+            this.isFinishInclusive = isFinishInclusive;
+            this.remaining = limit;
+            this.mapper = mapper;
+        }
+
+        /**
+         * Starts at the first entry with a key &gt;= {@code startInclusive}, the
+         * same entry as {@code startAtIndex(rank(startInclusive))}.
+         */
+        void startAtKey(K startInclusive) {
+            Node<K, V> node = cursor.start(root);
+            while (node instanceof NonLeaf) {
+                NonLeaf<K, V> inner = (NonLeaf<K, V>) node;
+                // keys equal to a separator can be in the child to its left if
+                // keys are not unique. If that child has no such key the scan
+                // moves on to the next leaf
+                int i = inner.getLocation(startInclusive, true);
+                node = cursor.child(inner, i);
+            }
+            leaf = (Leaf<K, V>) node;
+            numKeys = leaf.numKeys();
+            idx = leaf.getLocation(startInclusive, true);
+        }
+
+        /**
+         * Starts at the entry with the given index in key order, skipping the
+         * subtrees that hold the entries before it.
+         */
+        void startAtIndex(long index) {
+            Node<K, V> node = cursor.start(root);
+            while (node instanceof NonLeaf) {
+                NonLeaf<K, V> inner = (NonLeaf<K, V>) node;
+                int n = inner.numKeys();
+                int i = 0;
+                while (i < n) {
+                    long count = inner.count(i);
+                    if (index < count) {
+                        break;
                     }
+                    index -= count;
+                    i++;
+                }
+                node = cursor.child(inner, i);
+            }
+            leaf = (Leaf<K, V>) node;
+            numKeys = leaf.numKeys();
+            idx = (int) Math.min(index, numKeys);
+        }
 
-                };
+        @Override
+        public boolean hasNext() {
+            load();
+            return value != null;
+        }
+
+        @Override
+        public R next() {
+            load();
+            R v = value;
+            value = null;
+            if (v == null) {
+                throw new NoSuchElementException();
+            } else {
+                return v;
+            }
+        }
+
+        private void load() {
+            if (value != null) {
+                return;
+            }
+            while (leaf != null) {
+                if (remaining == 0) {
+                    leaf = null;
+                } else if (idx < numKeys) {
+                    K key = leaf.key(idx);
+                    if (finish != null && !beforeFinish(key)) {
+                        // don't search further
+                        leaf = null;
+                    } else {
+                        value = mapper.apply(key, leaf, idx);
+                        idx++;
+                        remaining--;
+                    }
+                    return;
+                } else {
+                    leaf = cursor.next(leaf);
+                    if (leaf != null) {
+                        numKeys = leaf.numKeys();
+                    }
+                    idx = 0;
+                }
             }
+        }
+
+        private boolean beforeFinish(K key) {
+            int c = options.comparator().compare(key, finish);
+            return c < 0 || (c == 0 && isFinishInclusive);
+        }
+    }
+
+    /**
+     * Returns the values whose keys are &gt;= start and &lt; finish in descending
+     * key order. The scan starts at the leaf holding the last key in range and
+     * follows the previous leaf links so only the returned entries are read.
+     * 
+     * @param startInclusive  inclusive end of search
+     * @param finishExclusive exclusive end of search
+     * @return values whose keys are &gt;= start and &lt; finish in descending key
+     *         order
+     */
+    public Iterable<V> findDescending(K startInclusive, K finishExclusive) {
+        return findDescending(startInclusive, finishExclusive, false);
+    }
 
+    public Iterable<V> findDescending(K startInclusive, K finish, boolean isFinishInclusive) {
+        return findDescending(startInclusive, finish, isFinishInclusive, (k, v) -> v);
+    }
+
+    public Iterable<Entry<K, V>> findEntriesDescending(K startInclusive, K finishExclusive) {
+        return findEntriesDescending(startInclusive, finishExclusive, false);
+    }
+
+    public Iterable<Entry<K, V>> findEntriesDescending(K startInclusive, K finish, boolean isFinishInclusive) {
+        return findDescending(startInclusive, finish, isFinishInclusive, (k, v) -> Entry.create(k, v));
+    }
+
+    public <R> Iterable<R> findDescending(K startInclusive, K finish, boolean isFinishInclusive,
+            BiFunction<? super K, ? super V, ? extends R> mapper) {
+        return () -> {
+            NodeCursor<K, V> cursor = factory.cursor();
+            Leaf<K, V> leaf = findLastLeaf(finish, isFinishInclusive, cursor);
+            int idx = leaf.getLocation(finish, !isFinishInclusive) - 1;
+            return new DescendingIterator<R>(cursor, leaf, idx, startInclusive, Long.MAX_VALUE, mapper);
         };
     }
 
+    /**
+     * Returns the values of the {@code n} entries with the greatest keys in
+     * descending key order.
+     * 
+     * @param n maximum number of values to return
+     * @return values of the last {@code n} entries in descending key order
+     */
+    public Iterable<V> findLast(int n) {
+        return findLast(n, (k, v) -> v);
+    }
+
+    public <R> Iterable<R> findLast(int n, BiFunction<? super K, ? super V, ? extends R> mapper) {
+        Preconditions.checkArgument(n >= 0, "n cannot be negative");
+        return () -> {
+            NodeCursor<K, V> cursor = factory.cursor();
+            Leaf<K, V> leaf = lastLeaf(cursor.start(root), cursor);
+            return new DescendingIterator<R>(cursor, leaf, leaf.numKeys() - 1, null, n, mapper);
+        };
+    }
+
+    /**
+     * Returns the leaf that holds the last key that is &lt; {@code key} (&lt;=
+     * {@code key} if {@code inclusive}) or, if that leaf has no such key, the
+     * leaf after it.
+     */
+    private Leaf<K, V> findLastLeaf(K key, boolean inclusive, NodeCursor<K, V> cursor) {
+        Node<K, V> node = cursor.start(root);
+        while (node instanceof NonLeaf) {
+            NonLeaf<K, V> inner = (NonLeaf<K, V>) node;
+            // children to the right of the chosen one only hold keys beyond the
+            // range
+            int idx = inner.getLocation(key, !inclusive);
+            node = cursor.child(inner, idx);
+        }
+        return (Leaf<K, V>) node;
+    }
+
+    private final class DescendingIterator<R> implements Iterator<R> {
+
+        private final NodeCursor<K, V> cursor;
+        private final K startInclusive;
+        private final BiFunction<? super K, ? super V, ? extends R> mapper;
+        private Leaf<K, V> leaf;
+        private int idx;
+        private long remaining;
+        private R value;
+
+        DescendingIterator(NodeCursor<K, V> cursor, Leaf<K, V> leaf, int idx, K startInclusive, long limit,
+                BiFunction<? super K, ? super V, ? extends R> mapper) {
+            this.cursor = cursor;
+            this.leaf = leaf;
+            this.idx = idx;
+            this.startInclusive = startInclusive;
+            this.remaining = limit;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public boolean hasNext() {
+            load();
+            return value != null;
+        }
+
+        @Override
+        public R next() {
+            load();
+            R v = value;
+            value = null;
+            if (v == null) {
+                throw new NoSuchElementException();
+            } else {
+                return v;
+            }
+        }
+
+        private void load() {
+            if (value != null) {
+                return;
+            }
+            while (leaf != null) {
+                if (remaining == 0) {
+                    leaf = null;
+                } else if (idx >= 0) {
+                    K key = leaf.key(idx);
+                    if (startInclusive != null && options.comparator().compare(key, startInclusive) < 0) {
+                        // don't search further
+                        leaf = null;
+                    } else {
+                        value = mapper.apply(key, leaf.value(idx));
+                        idx--;
+                        remaining--;
+                    }
+                    return;
+                } else {
+                    leaf = cursor.previous(leaf);
+                    if (leaf != null) {
+                        idx = leaf.numKeys() - 1;
+                    }
+                }
+            }
+        }
+    }
+
     // /**
     // * For the situation when uniqueness is false, when entries are inserted with
     // * the same key they are inserted before the last entry. As a consequence if
@@ -584,6 +1567,29 @@ public final class BPlusTree<K, V> implements AutoCloseable {
         }
     }
 
+    private static <K, V> Leaf<K, V> lastLeaf(Node<K, V> node) {
+        while (node instanceof NonLeaf) {
+            NonLeaf<K, V> n = (NonLeaf<K, V>) node;
+            node = n.child(n.numKeys());
+        }
+        return (Leaf<K, V>) node;
+    }
+
+    private static <K, V> Leaf<K, V> lastLeaf(Node<K, V> node, NodeCursor<K, V> cursor) {
+        while (node instanceof NonLeaf) {
+            NonLeaf<K, V> n = (NonLeaf<K, V>) node;
+            node = cursor.child(n, n.numKeys());
+        }
+        return (Leaf<K, V>) node;
+    }
+
+    private static <K, V> Leaf<K, V> firstLeaf(Node<K, V> node, NodeCursor<K, V> cursor) {
+        while (node instanceof NonLeaf) {
+            node = cursor.child((NonLeaf<K, V>) node, 0);
+        }
+        return (Leaf<K, V>) node;
+    }
+
     @VisibleForTesting
     Leaf<K, V> firstLeaf(Node<K, V> node) {
         if (node instanceof Leaf) {
@@ -605,12 +1611,15 @@ public final class BPlusTree<K, V> implements AutoCloseable {
             public Iterator<R> iterator() {
                 return new Iterator<R>() {
 
-                    Leaf<K, V> leaf = firstLeaf(root);
+                    final NodeCursor<K, V> cursor = factory.cursor();
+                    Leaf<K, V> leaf = firstLeaf(cursor.start(root), cursor);
                     int index = 0;
 
                     @Override
                     public boolean hasNext() {
-                        return leaf != null && index < leaf.numKeys();
+                        // leaves can be empty after removals
+                        moveBeyondLeafEnd();
+                        return leaf != null;
                     }
 
                     @Override
@@ -628,7 +1637,7 @@ public final class BPlusTree<K, V> implements AutoCloseable {
 
                     private void moveBeyondLeafEnd() {
                         while (leaf != null && index == leaf.numKeys()) {
-                            leaf = leaf.next();
+                            leaf = cursor.next(leaf);
                             index = 0;
                         }
                     }
@@ -703,12 +1712,80 @@ public final class BPlusTree<K, V> implements AutoCloseable {
         return factory;
     }
 
+    /**
+     * Returns a read-only view of this tree that can be searched from another
+     * thread. Every view has its own read position in the underlying storage so
+     * any number of views can run {@code find}, {@code findFirst} and
+     * {@code findAll} concurrently as long as this tree is not being written to
+     * at the same time. A view should be used by a single thread (create one per
+     * reader thread) and closed when finished with. Closing a view does not close
+     * this tree.
+     * 
+     * @return a read-only view of this tree
+     */
+    public BPlusTree<K, V> readView() {
+        checkNotReadView();
+        return new BPlusTree<K, V>(options, factory.readView());
+    }
+
+    /**
+     * Rewrites the live values of every value segment that has enough dead bytes
+     * (see {@link BuilderFile2#valueCompaction(double, int)}), commits and deletes
+     * the segment files. A segment file is not deleted while read views are open,
+     * in which case it is deleted by a later compaction once the views are
+     * closed. Does nothing for an in-memory tree or if value compaction has not
+     * been configured.
+     */
+    public void compactValues() {
+        checkNotReadView();
+        factory.compactValues(Integer.MAX_VALUE);
+        factory.commit();
+    }
+
+    private void checkNotReadView() {
+        if (readView) {
+            throw new UnsupportedOperationException("read view is read-only");
+        }
+    }
+
+    /**
+     * Returns hit, miss and eviction counts for the memory mapped segments of the
+     * index files. Useful for sizing {@code maxMappedSegments}. All counts are
+     * zero for an in-memory tree.
+     * 
+     * @return index segment statistics
+     */
+    public CacheStats indexSegmentStats() {
+        return factory.indexSegmentStats();
+    }
+
+    /**
+     * Returns hit, miss and eviction counts for the memory mapped segments of the
+     * value files. All counts are zero for an in-memory tree.
+     * 
+     * @return value segment statistics
+     */
+    public CacheStats valueSegmentStats() {
+        return factory.valueSegmentStats();
+    }
+
+    /**
+     * Returns hit, miss and eviction counts for the value cache (see
+     * {@code valueCacheBytes}). All counts are zero if there is no value cache.
+     * 
+     * @return value cache statistics
+     */
+    public CacheStats valueCacheStats() {
+        return factory.valueCacheStats();
+    }
+
     @Override
     public void close() throws Exception {
         factory.close();
     }
 
     public void commit() {
+        checkNotReadView();
         factory.commit();
     }
 
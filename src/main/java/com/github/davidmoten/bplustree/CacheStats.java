@@ -0,0 +1,66 @@
+package com.github.davidmoten.bplustree;
+
+/**
+ * Immutable snapshot of the hit, miss and eviction counts of a cache.
+ */
+public final class CacheStats {
+
+    private static final CacheStats EMPTY = new CacheStats(0, 0, 0);
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+
+    private CacheStats(long hits, long misses, long evictions) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    public static CacheStats create(long hits, long misses, long evictions) {
+        return new CacheStats(hits, misses, evictions);
+    }
+
+    public static CacheStats empty() {
+        return EMPTY;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the proportion of requests that were hits. Returns 1 if there have
+     * been no requests.
+     *
+     * @return the proportion of requests that were hits
+     */
+    public double hitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        b.append("CacheStats [hits=");
+        b.append(hits);
+        b.append(", misses=");
+        b.append(misses);
+        b.append(", evictions=");
+        b.append(evictions);
+        b.append(", hitRatio=");
+        b.append(hitRatio());
+        b.append("]");
+        return b.toString();
+    }
+
+}
@@ -5,8 +5,13 @@ import java.nio.charset.StandardCharsets;
 
 /**
  * Similar to {@link ByteBuffer} but supports {@code long} positions instead of
- * {@code int} positions. Does not include those methods in ByteBuffer that
- * include the position as a parameter (for simplicity).
+ * {@code int} positions.
+ * 
+ * <p>
+ * The absolute methods (those that take the position as a parameter) leave
+ * {@link #position()} unchanged. Their default implementations move the
+ * position, use the relative methods and move it back. Implementations should
+ * override them with direct absolute access where they can.
  * 
  * <p>
  * Also includes the notion of commit which forces flushing of memory buffers to
@@ -47,6 +52,110 @@ public interface LargeByteBuffer {
 
     void putFloat(float value);
 
+    default byte get(long position) {
+        long p = position();
+        position(position);
+        byte b = get();
+        position(p);
+        return b;
+    }
+
+    default void put(long position, byte b) {
+        long p = position();
+        position(position);
+        put(b);
+        position(p);
+    }
+
+    /**
+     * Reads {@code length} bytes starting at {@code position} into {@code dst}
+     * starting at {@code offset}.
+     * 
+     * @param position position to start reading from
+     * @param dst      destination array
+     * @param offset   index in dst of the first byte read
+     * @param length   number of bytes to read
+     */
+    default void get(long position, byte[] dst, int offset, int length) {
+        long p = position();
+        position(position);
+        if (offset == 0 && length == dst.length) {
+            get(dst);
+        } else {
+            byte[] bytes = new byte[length];
+            get(bytes);
+            System.arraycopy(bytes, 0, dst, offset, length);
+        }
+        position(p);
+    }
+
+    /**
+     * Writes {@code length} bytes of {@code src} starting from {@code offset} to
+     * the buffer starting at {@code position}.
+     * 
+     * @param position position to start writing at
+     * @param src      source array
+     * @param offset   index in src of the first byte to write
+     * @param length   number of bytes to write
+     */
+    default void put(long position, byte[] src, int offset, int length) {
+        long p = position();
+        position(position);
+        if (offset == 0 && length == src.length) {
+            put(src);
+        } else {
+            byte[] bytes = new byte[length];
+            System.arraycopy(src, offset, bytes, 0, length);
+            put(bytes);
+        }
+        position(p);
+    }
+
+    default short getShort(long position) {
+        long p = position();
+        position(position);
+        short value = getShort();
+        position(p);
+        return value;
+    }
+
+    default void putShort(long position, short value) {
+        long p = position();
+        position(position);
+        putShort(value);
+        position(p);
+    }
+
+    default int getInt(long position) {
+        long p = position();
+        position(position);
+        int value = getInt();
+        position(p);
+        return value;
+    }
+
+    default void putInt(long position, int value) {
+        long p = position();
+        position(position);
+        putInt(value);
+        position(p);
+    }
+
+    default long getLong(long position) {
+        long p = position();
+        position(position);
+        long value = getLong();
+        position(p);
+        return value;
+    }
+
+    default void putLong(long position, long value) {
+        long p = position();
+        position(position);
+        putLong(value);
+        position(p);
+    }
+
     void commit();
 
     default String getString() {
@@ -0,0 +1,37 @@
+package com.github.davidmoten.bplustree;
+
+import java.util.function.Supplier;
+
+/**
+ * A key and value where the value is only read (and deserialized) when
+ * {@link #value()} is first called. The value should be read before the tree is
+ * next modified.
+ */
+public final class LazyEntry<K, V> {
+
+    private final K key;
+    private Supplier<? extends V> supplier;
+    private V value;
+
+    private LazyEntry(K key, Supplier<? extends V> supplier) {
+        this.key = key;
+        this.supplier = supplier;
+    }
+
+    public static <K, V> LazyEntry<K, V> create(K key, Supplier<? extends V> value) {
+        return new LazyEntry<K, V>(key, value);
+    }
+
+    public K key() {
+        return key;
+    }
+
+    public V value() {
+        if (supplier != null) {
+            value = supplier.get();
+            supplier = null;
+        }
+        return value;
+    }
+
+}
@@ -18,6 +18,29 @@ public interface Serializer<T> {
      */
     int maxSize();
 
+    /**
+     * Returns true if every serialized item is exactly {@link #maxSize()} bytes.
+     * Trees store small fixed size values in the leaf nodes instead of in separate
+     * value files.
+     * 
+     * @return true if every serialized item is {@link #maxSize()} bytes
+     */
+    default boolean isFixedSize() {
+        return false;
+    }
+
+    /**
+     * Returns true if comparing two serialized items byte by byte as unsigned
+     * bytes gives the same order as the comparator of the tree the serializer is
+     * used with. A fixed size key serializer that returns true lets searches
+     * compare keys in place in the index files without deserializing them.
+     * 
+     * @return true if the serialized form sorts in the same order as the items
+     */
+    default boolean isOrderPreserving() {
+        return false;
+    }
+
     public static Serializer<Short> SHORT = new Serializer<Short>() {
 
         @Override
@@ -34,6 +57,11 @@ public interface Serializer<T> {
         public int maxSize() {
             return Short.BYTES;
         }
+
+        @Override
+        public boolean isFixedSize() {
+            return true;
+        }
     };
 
     public static Serializer<Integer> INTEGER = new Serializer<Integer>() {
@@ -52,6 +80,11 @@ public interface Serializer<T> {
         public int maxSize() {
             return Integer.BYTES;
         }
+
+        @Override
+        public boolean isFixedSize() {
+            return true;
+        }
     };
 
     public static Serializer<Long> LONG = new Serializer<Long>() {
@@ -70,6 +103,11 @@ public interface Serializer<T> {
         public int maxSize() {
             return Long.BYTES;
         }
+
+        @Override
+        public boolean isFixedSize() {
+            return true;
+        }
     };
 
     public static Serializer<Float> FLOAT = new Serializer<Float>() {
@@ -88,6 +126,11 @@ public interface Serializer<T> {
         public int maxSize() {
             return Float.BYTES;
         }
+
+        @Override
+        public boolean isFixedSize() {
+            return true;
+        }
     };
 
     public static Serializer<Double> DOUBLE = new Serializer<Double>() {
@@ -106,6 +149,11 @@ public interface Serializer<T> {
         public int maxSize() {
             return Double.BYTES;
         }
+
+        @Override
+        public boolean isFixedSize() {
+            return true;
+        }
     };
 
     public static Serializer<String> utf8() {
@@ -0,0 +1,261 @@
+package com.github.davidmoten.bplustree.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import com.github.davidmoten.bplustree.Entry;
+import com.github.davidmoten.bplustree.Serializer;
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * Sorts entries that may not fit in memory. Entries are read in runs that are
+ * sorted in parallel (fork/join) and written to temporary files using the key
+ * and value serializers, then the runs are merged.
+ */
+public final class ExternalSort<K, V> {
+
+    private static final int RUN_SEGMENT_SIZE_BYTES = 16 * 1024 * 1024;
+
+    private final Comparator<? super K> comparator;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final File directory;
+    private final int maxEntriesInMemory;
+    private final int maxMappedSegments;
+
+    /**
+     * Constructor.
+     *
+     * @param comparator         key comparator
+     * @param keySerializer      key serializer
+     * @param valueSerializer    value serializer
+     * @param directory          directory in which to create the temporary
+     *                           directory holding the sorted runs
+     * @param maxEntriesInMemory maximum number of entries held in memory at any
+     *                           one time. One run is sorted while the previous
+     *                           run is written so each run is half this size.
+     * @param maxMappedSegments  maximum number of segments of each run file set
+     *                           mapped at any one time, 0 means no limit
+     */
+    public ExternalSort(Comparator<? super K> comparator, Serializer<K> keySerializer,
+            Serializer<V> valueSerializer, File directory, int maxEntriesInMemory, int maxMappedSegments) {
+        Preconditions.checkArgument(maxEntriesInMemory >= 2, "maxEntriesInMemory must be at least 2");
+        Preconditions.checkArgument(maxMappedSegments >= 0, "maxMappedSegments cannot be negative");
+        this.comparator = comparator;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.directory = directory;
+        this.maxEntriesInMemory = maxEntriesInMemory;
+        this.maxMappedSegments = maxMappedSegments;
+    }
+
+    /**
+     * Sorts the entries by key (entries with equal keys stay in input order) and
+     * passes an iterator of the sorted entries to {@code consumer}. Temporary
+     * files are deleted once {@code consumer} returns.
+     *
+     * @param entries  entries to sort
+     * @param consumer receives the sorted entries
+     */
+    public void sort(Iterator<Entry<K, V>> entries, Consumer<Iterator<Entry<K, V>>> consumer) {
+        Comparator<Entry<K, V>> entryComparator = (a, b) -> comparator.compare(a.key(), b.key());
+        int runSize = maxEntriesInMemory / 2;
+        Entry<K, V>[] run = readRun(entries, runSize);
+        Arrays.parallelSort(run, entryComparator);
+        if (!entries.hasNext()) {
+            // everything fits in one run so no need for files
+            consumer.accept(Arrays.asList(run).iterator());
+            return;
+        }
+        File runsDirectory = createTempDirectory();
+        ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "bplustree-sort-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        List<Run<K, V>> runs = new ArrayList<>();
+        try {
+            Future<Run<K, V>> written = null;
+            while (true) {
+                Entry<K, V>[] r = run;
+                int number = runs.size() + (written == null ? 0 : 1);
+                // write the previous run while the next run is read and sorted
+                Future<Run<K, V>> next = writer.submit(() -> writeRun(runsDirectory, number, r));
+                if (written != null) {
+                    runs.add(get(written));
+                }
+                written = next;
+                if (!entries.hasNext()) {
+                    break;
+                }
+                run = readRun(entries, runSize);
+                Arrays.parallelSort(run, entryComparator);
+            }
+            runs.add(get(written));
+            consumer.accept(new MergeIterator<K, V>(runs, comparator));
+        } finally {
+            writer.shutdownNow();
+            for (Run<K, V> r : runs) {
+                r.close();
+            }
+            delete(runsDirectory);
+        }
+    }
+
+    private File createTempDirectory() {
+        try {
+            return Files.createTempDirectory(directory.toPath(), "sort-").toFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Entry<K, V>[] readRun(Iterator<Entry<K, V>> entries, int runSize) {
+        List<Entry<K, V>> list = new ArrayList<>();
+        while (list.size() < runSize && entries.hasNext()) {
+            list.add(entries.next());
+        }
+        return (Entry<K, V>[]) list.toArray(new Entry<?, ?>[list.size()]);
+    }
+
+    private Run<K, V> writeRun(File runsDirectory, int number, Entry<K, V>[] entries) {
+        LargeMappedByteBuffer bb = new LargeMappedByteBuffer(runsDirectory, RUN_SEGMENT_SIZE_BYTES,
+                "run-" + number + "-", maxMappedSegments);
+        bb.position(0);
+        for (Entry<K, V> entry : entries) {
+            keySerializer.write(bb, entry.key());
+            valueSerializer.write(bb, entry.value());
+        }
+        return new Run<K, V>(number, bb, entries.length, keySerializer, valueSerializer);
+    }
+
+    private static final class Run<K, V> {
+
+        final int number;
+        private final LargeMappedByteBuffer bb;
+        private final Serializer<K> keySerializer;
+        private final Serializer<V> valueSerializer;
+        private int remaining;
+        Entry<K, V> current;
+
+        Run(int number, LargeMappedByteBuffer bb, int size, Serializer<K> keySerializer,
+                Serializer<V> valueSerializer) {
+            this.number = number;
+            this.bb = bb;
+            this.remaining = size;
+            this.keySerializer = keySerializer;
+            this.valueSerializer = valueSerializer;
+            bb.position(0);
+        }
+
+        /**
+         * Reads the next entry into {@code current} (null if none left).
+         */
+        void advance() {
+            if (remaining == 0) {
+                current = null;
+            } else {
+                K key = keySerializer.read(bb);
+                V value = valueSerializer.read(bb);
+                current = Entry.create(key, value);
+                remaining--;
+            }
+        }
+
+        void close() {
+            try {
+                bb.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Merges sorted runs. Entries with equal keys come from the earlier run first
+     * so the merge is stable.
+     */
+    private static final class MergeIterator<K, V> implements Iterator<Entry<K, V>> {
+
+        private final PriorityQueue<Run<K, V>> queue;
+
+        MergeIterator(List<Run<K, V>> runs, Comparator<? super K> comparator) {
+            Comparator<Run<K, V>> c = (a, b) -> {
+                int result = comparator.compare(a.current.key(), b.current.key());
+                if (result == 0) {
+                    return Integer.compare(a.number, b.number);
+                } else {
+                    return result;
+                }
+            };
+            this.queue = new PriorityQueue<>(Math.max(1, runs.size()), c);
+            for (Run<K, V> run : runs) {
+                run.advance();
+                if (run.current != null) {
+                    queue.add(run);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            Run<K, V> run = queue.poll();
+            if (run == null) {
+                throw new NoSuchElementException();
+            }
+            Entry<K, V> entry = run.current;
+            run.advance();
+            if (run.current != null) {
+                queue.add(run);
+            }
+            return entry;
+        }
+
+    }
+
+}
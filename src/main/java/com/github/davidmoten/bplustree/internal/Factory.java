@@ -1,5 +1,11 @@
 package com.github.davidmoten.bplustree.internal;
 
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+import com.github.davidmoten.bplustree.CacheStats;
+import com.github.davidmoten.bplustree.Entry;
+
 public interface Factory<K, V> extends AutoCloseable {
 
     Leaf<K, V> createLeaf();
@@ -8,6 +14,15 @@ public interface Factory<K, V> extends AutoCloseable {
 
     void commit();
 
+    /**
+     * Called when a node is no longer part of the tree so that its storage can be
+     * reused by a later call to {@link #createLeaf()} or
+     * {@link #createNonLeaf()}.
+     * 
+     * @param node node that is no longer referenced by the tree
+     */
+    void free(Node<K, V> node);
+
     /**
      * Called when the root node of the BPlusTree is initialized or changes.
      * 
@@ -16,7 +31,58 @@ public interface Factory<K, V> extends AutoCloseable {
     void root(Node<K, V> node);
 
     Node<K, V> loadOrCreateRoot();
+
+    /**
+     * Returns a cursor for a single read operation. Node objects returned by the
+     * cursor may be reused by later calls on it so that traversal doesn't
+     * allocate per node.
+     * 
+     * @return a new cursor
+     */
+    NodeCursor<K, V> cursor();
     
     Options<K, V> options();
-    
+
+    /**
+     * Returns a factory that reads the same tree using its own read positions so
+     * that it can be used from another thread concurrently with other read views.
+     * The returned factory's {@link #loadOrCreateRoot()} returns the current root.
+     * 
+     * @return read view factory
+     */
+    Factory<K, V> readView();
+
+    /**
+     * Sorts the entries by key (entries with equal keys keep their input order)
+     * and passes an iterator of the sorted entries to {@code consumer}.
+     * 
+     * @param entries            entries in any order
+     * @param maxEntriesInMemory maximum number of entries to hold in memory while
+     *                           sorting
+     * @param consumer           receives the sorted entries
+     */
+    void sort(Iterator<Entry<K, V>> entries, int maxEntriesInMemory, Consumer<Iterator<Entry<K, V>>> consumer);
+
+    /**
+     * Called after each insert so that the factory can do a bounded amount of
+     * value compaction if configured to.
+     */
+    void afterInsert();
+
+    /**
+     * Reclaims space used by values that are no longer referenced, examining at
+     * most {@code maxLeaves} leaves. Work continues from where the previous call
+     * left off.
+     * 
+     * @param maxLeaves maximum number of leaves to examine
+     * @return true if there is no compaction work left
+     */
+    boolean compactValues(int maxLeaves);
+
+    CacheStats indexSegmentStats();
+
+    CacheStats valueSegmentStats();
+
+    CacheStats valueCacheStats();
+
 }
\ No newline at end of file
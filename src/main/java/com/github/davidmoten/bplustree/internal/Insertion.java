@@ -0,0 +1,19 @@
+package com.github.davidmoten.bplustree.internal;
+
+/**
+ * Reports to the nodes on the path of an insert whether the entry was added or
+ * replaced the value of an entry with an equal key (when keys are unique) so
+ * that they can keep the entry counts of their children up to date.
+ */
+public final class Insertion {
+
+    private boolean added;
+
+    public boolean added() {
+        return added;
+    }
+
+    void added(boolean added) {
+        this.added = added;
+    }
+}
@@ -14,68 +14,515 @@ import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import com.github.davidmoten.bplustree.Entry;
+import com.github.davidmoten.bplustree.CacheStats;
 import com.github.davidmoten.bplustree.LargeByteBuffer;
+import com.github.davidmoten.guavamini.Preconditions;
 import com.github.davidmoten.guavamini.annotations.VisibleForTesting;
 
 public final class LargeMappedByteBuffer implements AutoCloseable, LargeByteBuffer {
 
     private final int segmentSizeBytes;
 
-    private final TreeMap<Long, Segment> map = new TreeMap<>();
-    private final List<Entry<Long, Segment>> list = new ArrayList<>();
+    // segments indexed by segment number (null if not mapped yet), grows as
+    // required
+    private Segment[] segments = new Segment[16];
+
+    // the last segment accessed, consecutive reads and writes usually hit the same
+    // segment so this saves the array lookup
+    private long lastSegmentNumber = -1;
+    private Segment lastSegment;
+    private ByteBuffer lastBuffer;
     private final File directory;
     private final String segmentNamePrefix;
 
+    // maximum number of segments mapped at any one time, 0 means no limit
+    private final int maxMappedSegments;
+    private int numMappedSegments;
+
+    // CLOCK eviction position in the segments array
+    private int clockHand;
+
+    // number of pins of each segment indexed by segment number, a segment with a
+    // positive count is never evicted
+    private int[] pinCounts = new int[0];
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    // segments written to since the last commit
+    private final List<Segment> dirty = new ArrayList<>();
+
+    // the buffer this is a read view of, null if this is not a read view
+    private final LargeMappedByteBuffer parent;
+
+    // for a read view, duplicates of the parent's segment buffers indexed by
+    // segment number so that reads from this view do not disturb the positions
+    // of the buffers used by other threads
+    private ByteBuffer[] duplicates;
+
+    // for a read view, the parent's segments that duplicates were made of. They
+    // are not evicted until this view releases them
+    private List<Segment> viewSegments;
+
+    // number of read views of this buffer that have not been closed, segment
+    // files are not deleted while there are open views
+    private volatile int numOpenViews;
+
+    // number of segments after a newly created segment to create and map on a
+    // background thread, 0 for none
+    private final int preallocateSegments;
+
+    // if true the pages of preallocated segments are loaded into memory
+    private final boolean preFault;
+
+    // segments being created and mapped by the background thread keyed by segment
+    // number. They count towards maxMappedSegments and their files are deleted
+    // on close if they were never used
+    private final Map<Long, Future<Segment>> preallocated = new HashMap<>();
+
+    // created on first use
+    private ExecutorService preallocator;
+
     private byte[] temp2Bytes = new byte[2];
     private byte[] temp4Bytes = new byte[4];
     private byte[] temp8Bytes = new byte[8];
 
     public LargeMappedByteBuffer(File directory, int segmentSizeBytes, String segmentNamePrefix) {
+        this(directory, segmentSizeBytes, segmentNamePrefix, 0);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param directory         directory to hold the segment files
+     * @param segmentSizeBytes  size of each segment file in bytes
+     * @param segmentNamePrefix prefix of each segment file name (the segment
+     *                          number is the suffix)
+     * @param maxMappedSegments maximum number of segments mapped at any one time
+     *                          (cold segments are unmapped and remapped on
+     *                          demand), 0 means no limit
+     */
+    public LargeMappedByteBuffer(File directory, int segmentSizeBytes, String segmentNamePrefix,
+            int maxMappedSegments) {
+        this(directory, segmentSizeBytes, segmentNamePrefix, maxMappedSegments, 0, false);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param directory           directory to hold the segment files
+     * @param segmentSizeBytes    size of each segment file in bytes
+     * @param segmentNamePrefix   prefix of each segment file name (the segment
+     *                            number is the suffix)
+     * @param maxMappedSegments   maximum number of segments mapped at any one time
+     *                            (cold segments are unmapped and remapped on
+     *                            demand), 0 means no limit
+     * @param preallocateSegments when a new segment file is created the next
+     *                            {@code preallocateSegments} segment files are
+     *                            created and mapped on a background thread so
+     *                            that writes crossing into them don't wait on
+     *                            file creation, 0 means no preallocation
+     * @param preFault            if true the pages of preallocated segments are
+     *                            also loaded into physical memory in the
+     *                            background
+     */
+    public LargeMappedByteBuffer(File directory, int segmentSizeBytes, String segmentNamePrefix,
+            int maxMappedSegments, int preallocateSegments, boolean preFault) {
+        Preconditions.checkArgument(maxMappedSegments >= 0, "maxMappedSegments cannot be negative");
+        Preconditions.checkArgument(preallocateSegments >= 0, "preallocateSegments cannot be negative");
         this.directory = directory;
         this.segmentSizeBytes = segmentSizeBytes;
         this.segmentNamePrefix = segmentNamePrefix;
+        this.maxMappedSegments = maxMappedSegments;
+        this.preallocateSegments = preallocateSegments;
+        this.preFault = preFault;
+        this.parent = null;
+    }
+
+    private LargeMappedByteBuffer(LargeMappedByteBuffer parent) {
+        this.directory = parent.directory;
+        this.segmentSizeBytes = parent.segmentSizeBytes;
+        this.segmentNamePrefix = parent.segmentNamePrefix;
+        this.maxMappedSegments = parent.maxMappedSegments;
+        this.preallocateSegments = 0;
+        this.preFault = false;
+        this.parent = parent;
+        this.duplicates = new ByteBuffer[16];
+        this.viewSegments = new ArrayList<>();
+    }
+
+    /**
+     * Returns a read-only view of this buffer that shares its mapped segments but
+     * has its own position and its own duplicate of each segment buffer. Each
+     * view should be used by only one thread but many views can read
+     * concurrently as long as nothing is writing to this buffer. Segments are
+     * mapped under this buffer's lock whether by a view or by this buffer so
+     * this buffer can still be read while views are open. A segment a view is
+     * reading is not evicted until the view releases it. When the number of
+     * mapped segments is bounded a view holds at most half of
+     * {@code maxMappedSegments} segments at a time so that others can still be
+     * evicted. Views should be closed when finished with.
+     * 
+     * @return a new read view of this buffer
+     */
+    public LargeMappedByteBuffer view() {
+        Preconditions.checkArgument(parent == null, "cannot create a view of a view");
+        synchronized (this) {
+            numOpenViews++;
+        }
+        return new LargeMappedByteBuffer(this);
     }
 
     private long position;
 
-    private MappedByteBuffer bb(long position) {
-        // TODO close segments when map gets too many entries
+    private ByteBuffer bb(long position) {
+        ByteBuffer bb = buffer(segmentNumber(position));
+        bb.position(offset(position));
+        return bb;
+    }
+
+    private ByteBuffer bbWrite(long position, int length) {
+        ByteBuffer bb = buffer(segmentNumber(position));
+        int offset = offset(position);
+        markDirty(offset, length);
+        bb.position(offset);
+        return bb;
+    }
 
-        long num = segmentNumber(position);
+    private ByteBuffer buffer(long num) {
+        if (num == lastSegmentNumber) {
+            hits++;
+            return lastBuffer;
+        }
+        if (parent == null) {
+            // ownSegment records the last segment number and segment
+            lastBuffer = ownSegment(num).bb;
+            return lastBuffer;
+        }
+        // read view
+        ByteBuffer buffer = num < duplicates.length ? duplicates[(int) num] : null;
+        if (buffer == null) {
+            misses++;
+            if (maxMappedSegments > 0 && viewSegments.size() >= Math.max(1, maxMappedSegments / 2)) {
+                releaseViewSegments();
+            }
+            Segment segment = parent.sharedSegment(num);
+            viewSegments.add(segment);
+            buffer = segment.bb.duplicate();
+            if (num >= duplicates.length) {
+                duplicates = Arrays.copyOf(duplicates, (int) Math.max(num + 1, 2L * duplicates.length));
+            }
+            duplicates[(int) num] = buffer;
+        } else {
+            hits++;
+        }
+        lastSegmentNumber = num;
+        lastBuffer = buffer;
+        return buffer;
+    }
+
+    /**
+     * Releases the parent's segments held by this read view so that they can be
+     * evicted.
+     */
+    private void releaseViewSegments() {
+        synchronized (parent) {
+            for (Segment segment : viewSegments) {
+                segment.views--;
+            }
+        }
+        viewSegments.clear();
+        Arrays.fill(duplicates, null);
+        lastSegmentNumber = -1;
+        lastBuffer = null;
+    }
+
+    /**
+     * Records a write to the last segment returned by {@link #buffer(long)}.
+     */
+    private void markDirty(int offset, int length) {
+        if (parent != null) {
+            throw new UnsupportedOperationException("cannot write to a read view");
+        }
+        if (lastSegment.markDirty(offset, length)) {
+            dirty.add(lastSegment);
+        }
+    }
+
+    /**
+     * Returns the segment with the given number for use by this buffer, mapping
+     * it if required. Holds the same lock as {@link #sharedSegment(long)} because
+     * read views on other threads map segments into the same array. The last
+     * segment is recorded under the lock so that eviction by a read view never
+     * chooses the segment this buffer is reading.
+     */
+    private synchronized Segment ownSegment(long num) {
         Segment segment = getSegment(num);
         if (segment == null) {
+            misses++;
             segment = createSegment(num);
+        } else {
+            hits++;
         }
-        segment.bb.position((int) (position % segmentSizeBytes));
-        return segment.bb;
+        segment.referenced = true;
+        lastSegmentNumber = num;
+        lastSegment = segment;
+        return segment;
+    }
+
+    /**
+     * Returns the segment with the given number for use by a read view, mapping
+     * it if required. The segment is not evicted until the view releases it.
+     */
+    private synchronized Segment sharedSegment(long num) {
+        Segment segment = getSegment(num);
+        if (segment == null) {
+            misses++;
+            segment = createSegment(num);
+        }
+        segment.referenced = true;
+        segment.views++;
+        return segment;
     }
 
     private Segment getSegment(long num) {
-        for (int i = 0; i < list.size(); i++) {
-            Entry<Long, Segment> entry = list.get(i);
-            if (entry.key() == num) {
-                return entry.value();
-            }
+        if (num < segments.length) {
+            return segments[(int) num];
+        } else {
+            return null;
         }
-        return null;
     }
 
     private void putSegment(long num, Segment segment) {
-        // map.put(num, segment);
-        list.add(Entry.create(num, segment));
+        if (num >= segments.length) {
+            segments = Arrays.copyOf(segments, (int) Math.max(num + 1, 2L * segments.length));
+        }
+        segments[(int) num] = segment;
     }
 
     private Segment createSegment(long num) {
-        File file = new File(directory, segmentNamePrefix + num);
-        Segment segment = map(file, segmentSizeBytes);
+        Segment segment = takePreallocated(num);
+        if (segment == null && maxMappedSegments > 0
+                && numMappedSegments + preallocated.size() >= maxMappedSegments) {
+            evictSegment();
+        }
+        boolean growing;
+        if (segment != null) {
+            growing = true;
+        } else {
+            File file = segmentFile(num);
+            growing = !file.exists();
+            segment = map(file, segmentSizeBytes);
+        }
         putSegment(num, segment);
+        numMappedSegments++;
+        if (growing && preallocateSegments > 0) {
+            preallocate(num);
+        }
         return segment;
     }
 
+    private File segmentFile(long num) {
+        return new File(directory, segmentNamePrefix + num);
+    }
+
+    /**
+     * Starts creating and mapping the segments that follow the given segment (if
+     * their files don't exist yet and they are not in progress) on the background
+     * thread. No more are started than would take the number of mapped and
+     * preallocated segments past maxMappedSegments.
+     */
+    private void preallocate(long num) {
+        for (long n = num + 1; n <= num + preallocateSegments; n++) {
+            if (maxMappedSegments > 0 && numMappedSegments + preallocated.size() >= maxMappedSegments) {
+                return;
+            }
+            File file = segmentFile(n);
+            if (getSegment(n) == null && !preallocated.containsKey(n) && !file.exists()) {
+                preallocated.put(n, preallocator().submit(() -> {
+                    Segment segment = map(file, segmentSizeBytes);
+                    if (preFault) {
+                        segment.bb.load();
+                    }
+                    return segment;
+                }));
+            }
+        }
+    }
+
+    private ExecutorService preallocator() {
+        if (preallocator == null) {
+            preallocator = Executors.newSingleThreadExecutor(runnable -> {
+                Thread t = new Thread(runnable, "bplustree-preallocate-" + segmentNamePrefix);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return preallocator;
+    }
+
+    /**
+     * Returns the preallocated segment with the given number (waiting for the
+     * background thread to finish it if required) or null if the segment has not
+     * been preallocated.
+     */
+    private Segment takePreallocated(long num) {
+        if (preallocated.isEmpty()) {
+            return null;
+        }
+        Future<Segment> future = preallocated.remove(num);
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Unmaps one segment chosen using the CLOCK algorithm (an approximation of
+     * LRU). Pinned segments and segments held by read views are never chosen,
+     * nor while views are open is the segment this buffer last accessed (a view
+     * may be evicting on another thread while this buffer reads). If every mapped segment is excluded
+     * then nothing is evicted.
+     */
+    private void evictSegment() {
+        // two sweeps are enough to clear every referenced flag and come back to
+        // an unreferenced segment
+        for (int i = 0; i < 2 * segments.length; i++) {
+            int num = clockHand;
+            clockHand = (clockHand + 1) % segments.length;
+            Segment segment = segments[num];
+            if (segment != null && !isPinned(num) && segment.views == 0
+                    && (numOpenViews == 0 || segment != lastSegment)) {
+                if (segment.referenced) {
+                    segment.referenced = false;
+                } else {
+                    if (segment.isDirty()) {
+                        // flush now because once unmapped the segment cannot be
+                        // forced by commit
+                        segment.force();
+                        dirty.remove(segment);
+                    }
+                    try {
+                        segment.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    segments[num] = null;
+                    numMappedSegments--;
+                    evictions++;
+                    if (lastSegmentNumber == num) {
+                        lastSegmentNumber = -1;
+                        lastSegment = null;
+                        lastBuffer = null;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean isPinned(int num) {
+        return num < pinCounts.length && pinCounts[num] > 0;
+    }
+
+    /**
+     * Ensures that the segment containing the given position is never evicted
+     * (unmapped) when the number of mapped segments is bounded, until a matching
+     * call to {@link #unpin(long)}. Pins are counted so a segment stays pinned
+     * while any position in it is pinned.
+     * 
+     * @param position position in the buffer
+     */
+    public synchronized void pin(long position) {
+        int num = Math.toIntExact(segmentNumber(position));
+        if (num >= pinCounts.length) {
+            pinCounts = Arrays.copyOf(pinCounts, Math.max(num + 1, 2 * pinCounts.length));
+        }
+        pinCounts[num]++;
+    }
+
+    /**
+     * Reverses one call to {@link #pin(long)} for the given position. The
+     * segment can be evicted again once all of its pins are removed.
+     * 
+     * @param position position in the buffer
+     */
+    public synchronized void unpin(long position) {
+        int num = Math.toIntExact(segmentNumber(position));
+        Preconditions.checkArgument(isPinned(num), "segment is not pinned");
+        pinCounts[num]--;
+    }
+
+    /**
+     * Unmaps the segment with the given number without flushing it and deletes
+     * its file. The segment must not be read or written afterwards. Returns
+     * false and does nothing if read views are open because they may be reading
+     * the segment.
+     *
+     * @param num segment number
+     * @return true if the segment was deleted
+     */
+    public synchronized boolean deleteSegment(long num) {
+        if (parent != null) {
+            throw new UnsupportedOperationException("cannot delete from a read view");
+        }
+        if (numOpenViews > 0) {
+            return false;
+        }
+        try {
+            Segment segment = getSegment(num);
+            if (segment != null) {
+                dirty.remove(segment);
+                segment.close();
+                putSegment(num, null);
+                numMappedSegments--;
+                if (lastSegmentNumber == num) {
+                    lastSegmentNumber = -1;
+                    lastSegment = null;
+                    lastBuffer = null;
+                }
+            } else if (preallocated.containsKey(num)) {
+                takePreallocated(num).close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segmentFile(num).delete();
+        return true;
+    }
+
+    /**
+     * Returns hit, miss and eviction counts for the mapped segments. A hit is a
+     * read or write that found its segment already mapped, a miss had to map the
+     * segment.
+     * 
+     * @return segment cache statistics
+     */
+    public CacheStats stats() {
+        return CacheStats.create(hits, misses, evictions);
+    }
+
     private static Segment map(File file, int segmentSizeBytes) {
         try {
             checkFile(file, segmentSizeBytes);
@@ -117,7 +564,7 @@ public final class LargeMappedByteBuffer implements AutoCloseable, LargeByteBuff
 
     @Override
     public void put(byte b) {
-        bb(position++).put(b);
+        bbWrite(position++, 1).put(b);
     }
 
     @Override
@@ -145,7 +592,7 @@ public final class LargeMappedByteBuffer implements AutoCloseable, LargeByteBuff
     public void put(byte[] src) {
         long p = position;
         if (segmentNumber(p) == segmentNumber(p + src.length)) {
-            bb(p).put(src);
+            bbWrite(p, src.length).put(src);
         } else {
             int i = 0;
             while (true) {
@@ -154,7 +601,7 @@ public final class LargeMappedByteBuffer implements AutoCloseable, LargeByteBuff
                 if (length == 0) {
                     break;
                 }
-                bb(p).put(src, i, length);
+                bbWrite(p, length).put(src, i, length);
                 i += length;
                 p = p2;
             }
@@ -178,7 +625,7 @@ public final class LargeMappedByteBuffer implements AutoCloseable, LargeByteBuff
     public void putInt(int value) {
         long p = position;
         if (segmentNumber(p) == segmentNumber(p + Integer.BYTES)) {
-            bb(p).putInt(value);
+            bbWrite(p, Integer.BYTES).putInt(value);
             position += Integer.BYTES;
         } else {
             put(toBytes(value));
@@ -202,7 +649,7 @@ public final class LargeMappedByteBuffer implements AutoCloseable, LargeByteBuff
         long p = position;
         if (segmentNumber(p) == segmentNumber(p + Long.BYTES)) {
             position += Long.BYTES;
-            bb(p).putLong(value);
+            bbWrite(p, Long.BYTES).putLong(value);
         } else {
             put(toBytes(value));
         }
@@ -229,17 +676,136 @@ public final class LargeMappedByteBuffer implements AutoCloseable, LargeByteBuff
     public void putShort(short value) {
         long p = position;
         if (segmentNumber(p) == segmentNumber(p + Short.BYTES)) {
-            bb(p).putShort(value);
+            bbWrite(p, Short.BYTES).putShort(value);
             position += Short.BYTES;
         } else {
             put(toBytes(value));
         }
     }
 
+    @Override
+    public byte get(long position) {
+        return buffer(segmentNumber(position)).get(offset(position));
+    }
+
+    @Override
+    public void put(long position, byte b) {
+        ByteBuffer bb = buffer(segmentNumber(position));
+        int offset = offset(position);
+        // marked before writing so that a read view throws without writing
+        markDirty(offset, 1);
+        bb.put(offset, b);
+    }
+
+    @Override
+    public void get(long position, byte[] dst, int offset, int length) {
+        long p = position;
+        long finish = position + length;
+        while (p < finish) {
+            long p2 = Math.min(segmentPosition(segmentNumber(p) + 1), finish);
+            int n = (int) (p2 - p);
+            bb(p).get(dst, offset, n);
+            offset += n;
+            p = p2;
+        }
+    }
+
+    @Override
+    public void put(long position, byte[] src, int offset, int length) {
+        long p = position;
+        long finish = position + length;
+        while (p < finish) {
+            long p2 = Math.min(segmentPosition(segmentNumber(p) + 1), finish);
+            int n = (int) (p2 - p);
+            bbWrite(p, n).put(src, offset, n);
+            offset += n;
+            p = p2;
+        }
+    }
+
+    @Override
+    public short getShort(long position) {
+        long num = segmentNumber(position);
+        if (num == segmentNumber(position + Short.BYTES - 1)) {
+            return buffer(num).getShort(offset(position));
+        } else {
+            get(position, temp2Bytes, 0, Short.BYTES);
+            return toShort(temp2Bytes);
+        }
+    }
+
+    @Override
+    public void putShort(long position, short value) {
+        long num = segmentNumber(position);
+        if (num == segmentNumber(position + Short.BYTES - 1)) {
+            ByteBuffer bb = buffer(num);
+            int offset = offset(position);
+            markDirty(offset, Short.BYTES);
+            bb.putShort(offset, value);
+        } else {
+            byte[] bytes = toBytes(value);
+            put(position, bytes, 0, bytes.length);
+        }
+    }
+
+    @Override
+    public int getInt(long position) {
+        long num = segmentNumber(position);
+        if (num == segmentNumber(position + Integer.BYTES - 1)) {
+            return buffer(num).getInt(offset(position));
+        } else {
+            get(position, temp4Bytes, 0, Integer.BYTES);
+            return toInt(temp4Bytes);
+        }
+    }
+
+    @Override
+    public void putInt(long position, int value) {
+        long num = segmentNumber(position);
+        if (num == segmentNumber(position + Integer.BYTES - 1)) {
+            ByteBuffer bb = buffer(num);
+            int offset = offset(position);
+            markDirty(offset, Integer.BYTES);
+            bb.putInt(offset, value);
+        } else {
+            byte[] bytes = toBytes(value);
+            put(position, bytes, 0, bytes.length);
+        }
+    }
+
+    @Override
+    public long getLong(long position) {
+        long num = segmentNumber(position);
+        if (num == segmentNumber(position + Long.BYTES - 1)) {
+            return buffer(num).getLong(offset(position));
+        } else {
+            get(position, temp8Bytes, 0, Long.BYTES);
+            return toLong(temp8Bytes);
+        }
+    }
+
+    @Override
+    public void putLong(long position, long value) {
+        long num = segmentNumber(position);
+        if (num == segmentNumber(position + Long.BYTES - 1)) {
+            ByteBuffer bb = buffer(num);
+            int offset = offset(position);
+            markDirty(offset, Long.BYTES);
+            bb.putLong(offset, value);
+        } else {
+            byte[] bytes = toBytes(value);
+            put(position, bytes, 0, bytes.length);
+        }
+    }
+
     private long segmentNumber(long position) {
         return position / segmentSizeBytes;
     }
 
+    private int offset(long position) {
+        return (int) (position % segmentSizeBytes);
+    }
+
     private long segmentPosition(long segmentNumber) {
         return segmentSizeBytes * segmentNumber;
     }
@@ -299,30 +865,120 @@ public final class LargeMappedByteBuffer implements AutoCloseable, LargeByteBuff
         return ByteBuffer.wrap(b).getFloat();
     }
 
+    /**
+     * Forces to disk the changes made to the segments that have been written to
+     * since the last commit. Only the written byte range of each segment is forced
+     * where the runtime supports it (Java 13+). Segments are forced in parallel.
+     */
     @Override
     public void commit() {
-        for (Segment segment : map.values()) {
-            segment.bb.force();
+        if (dirty.size() == 1) {
+            dirty.get(0).force();
+        } else if (!dirty.isEmpty()) {
+            dirty.parallelStream().forEach(Segment::force);
         }
+        dirty.clear();
+    }
+
+    @VisibleForTesting
+    int numDirtySegments() {
+        return dirty.size();
+    }
+
+    @VisibleForTesting
+    synchronized int numMappedAndPreallocatedSegments() {
+        return numMappedSegments + preallocated.size();
     }
 
     @Override
     public void close() throws IOException {
-        for (Entry<Long, Segment> entry : list) {
-            entry.value().close();
+        if (parent != null) {
+            if (duplicates != null) {
+                releaseViewSegments();
+                duplicates = null;
+                synchronized (parent) {
+                    parent.numOpenViews--;
+                }
+            }
+            return;
         }
-        list.clear();
+        for (long num : new ArrayList<>(preallocated.keySet())) {
+            // nothing was written to it so the file is not needed
+            takePreallocated(num).close();
+            segmentFile(num).delete();
+        }
+        if (preallocator != null) {
+            preallocator.shutdown();
+            preallocator = null;
+        }
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i] != null) {
+                segments[i].close();
+                segments[i] = null;
+            }
+        }
+        lastSegmentNumber = -1;
+        lastSegment = null;
+        lastBuffer = null;
+        numMappedSegments = 0;
+        dirty.clear();
     }
 
     private static final class Segment {
         private final FileChannel channel;
         final MappedByteBuffer bb;
 
+        // set when accessed, cleared by the CLOCK eviction sweep
+        boolean referenced = true;
+
+        // number of read views holding a duplicate of this segment, the segment
+        // is not evicted while positive
+        int views;
+
+        // byte range written since last force, empty when dirtyStart >= dirtyEnd
+        private int dirtyStart = Integer.MAX_VALUE;
+        private int dirtyEnd = 0;
+
         Segment(FileChannel channel, MappedByteBuffer bb) {
             this.channel = channel;
             this.bb = bb;
         }
 
+        /**
+         * Records a write to the segment.
+         * 
+         * @param offset start of the write relative to the start of the segment
+         * @param length number of bytes written
+         * @return true if the segment was not dirty before this call and is now
+         */
+        boolean markDirty(int offset, int length) {
+            if (length == 0) {
+                return false;
+            }
+            boolean wasDirty = isDirty();
+            dirtyStart = Math.min(dirtyStart, offset);
+            dirtyEnd = Math.max(dirtyEnd, offset + length);
+            return !wasDirty;
+        }
+
+        boolean isDirty() {
+            return dirtyStart < dirtyEnd;
+        }
+
+        void force() {
+            if (FORCE_RANGE == null) {
+                bb.force();
+            } else {
+                try {
+                    FORCE_RANGE.invoke(bb, dirtyStart, dirtyEnd - dirtyStart);
+                } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+                    bb.force();
+                }
+            }
+            dirtyStart = Integer.MAX_VALUE;
+            dirtyEnd = 0;
+        }
+
         public void close() throws IOException {
             // Note that System.gc() seems to do the job as well
             // as closeDirectBuffer but of course may cause overall
@@ -333,6 +989,17 @@ public final class LargeMappedByteBuffer implements AutoCloseable, LargeByteBuff
 
     }
 
+    // MappedByteBuffer.force(int, int) is only available from Java 13
+    private static final Method FORCE_RANGE = forceRangeMethod();
+
+    private static Method forceRangeMethod() {
+        try {
+            return MappedByteBuffer.class.getMethod("force", int.class, int.class);
+        } catch (NoSuchMethodException | SecurityException e) {
+            return null;
+        }
+    }
+
     private static void closeDirectBuffer(ByteBuffer cb) {
         if (cb == null || !cb.isDirect())
             return;
@@ -383,7 +1050,7 @@ public final class LargeMappedByteBuffer implements AutoCloseable, LargeByteBuff
     public void putDouble(double value) {
         long p = position;
         if (segmentNumber(p) == segmentNumber(p + Double.BYTES)) {
-            bb(p).putDouble(value);
+            bbWrite(p, Double.BYTES).putDouble(value);
             position += Double.BYTES;
         } else {
             put(toBytes(value));
@@ -400,7 +1067,7 @@ public final class LargeMappedByteBuffer implements AutoCloseable, LargeByteBuff
     public void putFloat(float value) {
         long p = position;
         if (segmentNumber(p) == segmentNumber(p + Float.BYTES)) {
-            bb(p).putFloat(value);
+            bbWrite(p, Float.BYTES).putFloat(value);
             position += Float.BYTES;
         } else {
             put(toBytes(value));
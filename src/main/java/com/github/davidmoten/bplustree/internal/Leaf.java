@@ -1,5 +1,7 @@
 package com.github.davidmoten.bplustree.internal;
 
+import java.util.function.Supplier;
+
 public interface Leaf<K, V> extends Node<K, V> {
 
     public static final int TYPE = 0;
@@ -9,8 +11,27 @@ public interface Leaf<K, V> extends Node<K, V> {
 
     V value(int i);
 
+    /**
+     * Returns a supplier of the value at index {@code i} that reads the value
+     * when called rather than now. The supplier doesn't depend on this Leaf
+     * object (which may be reused) but should be called before the tree is next
+     * modified.
+     * 
+     * @param i index of the value
+     * @return supplier of the value
+     */
+    default Supplier<V> lazyValue(int i) {
+        V value = value(i);
+        return () -> value;
+    }
+
     void setNumKeys(int numKeys);
 
+    @Override
+    default long count() {
+        return numKeys();
+    }
+
     void setValue(int i, V value);
 
     /**
@@ -34,12 +55,38 @@ public interface Leaf<K, V> extends Node<K, V> {
      */
     void move(int start, int length, Leaf<K, V> newLeaf);
 
+    /**
+     * Removes {@code length} KeyValues from index {@code start}, shifting the
+     * KeyValues after them to the left, and decrements the number of keys.
+     * 
+     * @param start  index of the first Key Value pair to remove
+     * @param length number of Key Value pairs to remove
+     */
+    void remove(int start, int length);
+
+    /**
+     * Moves {@code length} KeyValues from index {@code start} of this Leaf to
+     * index {@code otherIndex} of {@code other} (shifting the KeyValues of
+     * {@code other} from that index to the right) and adjusts the number of keys
+     * of both Leaves.
+     * 
+     * @param start      start index of Key Value pairs to move in current Leaf
+     * @param length     number of Key Value pairs to move
+     * @param other      Leaf to move to
+     * @param otherIndex index in {@code other} to move to
+     */
+    void moveTo(int start, int length, Leaf<K, V> other, int otherIndex);
+
     void setNext(Leaf<K, V> sibling);
 
     Leaf<K, V> next();
 
+    void setPrevious(Leaf<K, V> sibling);
+
+    Leaf<K, V> previous();
+
     @Override
-    default Split<K, V> insert(K key, V value) {
+    default Split<K, V> insert(K key, V value, Insertion insertion) {
         // Simple linear search
         int i = getLocation(key);
         int numKeys = numKeys();
@@ -48,20 +95,31 @@ public interface Leaf<K, V> extends Node<K, V> {
             // the first mid entries will be retained
             // and the rest moved to a new right sibling
             int mid = (options().maxLeafKeys() + 1) / 2;
+            if (options().appendOptimizedSplits() && i > mid && next() == null) {
+                // inserting towards the right edge of the tree (as happens with
+                // ascending keys) so keep the left node as full as possible because
+                // it is unlikely to receive more keys
+                mid = i;
+            }
             int len = numKeys - mid;
             Leaf<K, V> sibling = factory().createLeaf();
             move(mid, len, sibling);
             if (i < mid) {
                 // Inserted element goes to left sibling
-                Util.insertNonfull(this, key, value, i, mid);
+                insertion.added(Util.insertNonfull(this, key, value, i, mid));
             } else {
                 // Inserted element goes to right sibling
                 // TODO this probably brings about another array copy
                 // (shift to the right) in sibling so perhaps should be combined with the
                 // original move
-                Util.insertNonfull(sibling, key, value, i - mid, len);
+                insertion.added(Util.insertNonfull(sibling, key, value, i - mid, len));
+            }
+            Leaf<K, V> next = next();
+            sibling.setNext(next);
+            sibling.setPrevious(this);
+            if (next != null) {
+                next.setPrevious(sibling);
             }
-            sibling.setNext(next());
             setNext(sibling);
             // Notify the parent about the split
             return new Split<>(sibling.key(0), // make the right's key >=
@@ -69,11 +127,37 @@ public interface Leaf<K, V> extends Node<K, V> {
                     this, sibling);
         } else {
             // The node was not full
-            Util.insertNonfull(this, key, value, i, numKeys);
+            insertion.added(Util.insertNonfull(this, key, value, i, numKeys));
             return null;
         }
     }
 
+    @Override
+    default long remove(Removal<K, V> removal) {
+        int i = getLocation(removal.start);
+        int numKeys = numKeys();
+        int end = i;
+        while (end < numKeys && removal.beforeFinish(key(end), options().comparator())) {
+            end++;
+        }
+        if (removal.removesAllInRange()) {
+            remove(i, end - i);
+            return end - i;
+        }
+        long count = 0;
+        while (i < end && !removal.done()) {
+            if (removal.matches(value(i))) {
+                remove(i, 1);
+                removal.removed(1);
+                end--;
+                count++;
+            } else {
+                i++;
+            }
+        }
+        return count;
+    }
+
     /**
      * Returns the position where 'key' should be inserted in a leaf node that has
      * the given keys. The position returned will be the first key K for which
@@ -85,7 +169,7 @@ public interface Leaf<K, V> extends Node<K, V> {
      */
     @Override
     default int getLocation(K key) {
-        return Util.getLocation(this, key, options().comparator(), true);
+        return getLocation(key, true);
     }
 
 }
\ No newline at end of file
@@ -5,13 +5,40 @@ import java.util.List;
 
 public interface Node<K, V> {
 
-    // returns null if no split, otherwise returns split info
-    Split<K, V> insert(K key, V value);
+    /**
+     * Inserts the entry into this node or its descendants.
+     *
+     * @param key       key
+     * @param value     value
+     * @param insertion records whether the entry was added
+     * @return null if no split, otherwise returns split info
+     */
+    Split<K, V> insert(K key, V value, Insertion insertion);
+
+    /**
+     * Removes the entries described by {@code removal} from this node and its
+     * descendants. Children that end up with too few keys are merged with or
+     * borrow from a sibling but this node may be left with too few keys, which
+     * is for the parent to fix.
+     *
+     * @param removal entries to remove
+     * @return number of entries removed
+     */
+    long remove(Removal<K, V> removal);
 
     K key(int i);
 
     int numKeys();
 
+    /**
+     * Returns the number of entries in the subtree of this node. A NonLeaf
+     * adds up the counts it holds for its children rather than visiting its
+     * descendants.
+     * 
+     * @return number of entries under this node
+     */
+    long count();
+
     Options<K, V> options();
 
     Factory<K, V> factory();
@@ -33,4 +60,17 @@ public interface Node<K, V> {
      */
     int getLocation(K key);
 
+    /**
+     * Returns the index of the first key that is greater than {@code key} (or
+     * equal to it if {@code acceptEquals} is true) or the number of keys if there
+     * is no such key.
+     * 
+     * @param key          key to look for
+     * @param acceptEquals if true a key equal to {@code key} is a match
+     * @return index of the first matching key
+     */
+    default int getLocation(K key, boolean acceptEquals) {
+        return Util.getLocation(this, key, options().comparator(), acceptEquals);
+    }
+
 }
\ No newline at end of file
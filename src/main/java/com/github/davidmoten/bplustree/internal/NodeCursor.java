@@ -0,0 +1,26 @@
+package com.github.davidmoten.bplustree.internal;
+
+/**
+ * Moves through the nodes of a tree for a single read operation (a lookup or a
+ * scan). An implementation may return the same node object repositioned rather
+ * than a new one each time so a node returned by a cursor is only valid until
+ * the cursor is next used. Nodes passed in are not modified.
+ */
+public interface NodeCursor<K, V> {
+
+    /**
+     * Returns the node that a descent from {@code root} should start at, which
+     * is {@code root} or a read only copy of it.
+     * 
+     * @param root root of the tree
+     * @return node to start a descent at
+     */
+    Node<K, V> start(Node<K, V> root);
+
+    Node<K, V> child(NonLeaf<K, V> node, int i);
+
+    Leaf<K, V> next(Leaf<K, V> leaf);
+
+    Leaf<K, V> previous(Leaf<K, V> leaf);
+
+}
@@ -13,16 +13,41 @@ public interface NonLeaf<K, V> extends Node<K, V> {
 
     Node<K, V> child(int i);
 
+    /**
+     * Returns the number of entries in the subtree of child {@code i}.
+     * 
+     * @param i child index
+     * @return number of entries under child i
+     */
+    long count(int i);
+
+    void setCount(int i, long count);
+
+    @Override
+    default long count() {
+        return Util.sumCounts(this, 0, numKeys() + 1);
+    }
+
     @Override
     K key(int i);
 
     void setKey(int i, K key);
 
+    /**
+     * Moves the keys from index {@code mid} and the children (with their counts)
+     * from index {@code mid} to the start of {@code other}. This node keeps
+     * {@code mid - 1} keys so that key {@code mid - 1} can move up to the parent.
+     * 
+     * @param mid    index of the first key to move
+     * @param other  node to move to
+     * @param length number of keys to move
+     */
     void move(int mid, NonLeaf<K, V> other, int length);
 
     /**
      * Inserts the key at the given index and sets the left child of that key to be
-     * {@code left}. Also increments the number of keys in the node.
+     * {@code left}, shifting later keys and children (with their counts) to the
+     * right. Also increments the number of keys in the node.
      * 
      * @param i    index to insert at
      * @param key  key to insert
@@ -30,10 +55,48 @@ public interface NonLeaf<K, V> extends Node<K, V> {
      */
     void insert(int i, K key, Node<K, V> left);
 
+    /**
+     * Removes {@code length} keys from index {@code start} and the children to
+     * the right of those keys, shifting later keys and children (with their
+     * counts) to the left.
+     * Also decrements the number of keys in the node.
+     * 
+     * @param start  index of the first key to remove
+     * @param length number of keys to remove
+     */
+    default void remove(int start, int length) {
+        int numKeys = numKeys();
+        for (int i = start; i < numKeys - length; i++) {
+            setKey(i, key(i + length));
+            setChild(i + 1, child(i + length + 1));
+            setCount(i + 1, count(i + length + 1));
+        }
+        setNumKeys(numKeys - length);
+    }
+
+    /**
+     * If child {@code i} has fewer than half the maximum number of keys then
+     * moves keys into it from a sibling or merges it with a sibling if the keys
+     * of both fit in one node. A child without keys is balanced along with its
+     * only child.
+     * 
+     * @param i index of the child
+     */
+    default void rebalance(int i) {
+        Util.rebalance(this, i);
+    }
+
     @Override
-    default Split<K, V> insert(K key, V value) {
+    default Split<K, V> insert(K key, V value, Insertion insertion) {
         if (numKeys() == options().maxNonLeafKeys()) { // Split
             int mid = options().maxNonLeafKeys() / 2 + 1;
+            if (options().appendOptimizedSplits() && getLocation(key) == numKeys()
+                    && Util.lastLeaf(this).next() == null) {
+                // inserting at the right edge of the tree (as happens with ascending
+                // keys) so keep the left node as full as possible because it is
+                // unlikely to receive more keys
+                mid = Math.max(mid, options().maxNonLeafKeys() - 1);
+            }
             int len = options().maxNonLeafKeys() - mid;
             NonLeaf<K, V> sibling = factory().createNonLeaf();
             move(mid, sibling, len);
@@ -43,17 +106,56 @@ public interface NonLeaf<K, V> extends Node<K, V> {
 
             // Now insert in the appropriate sibling
             if (options().comparator().compare(key, result.key) < 0) {
-                Util.insertNonfull(this, key, value);
+                Util.insertNonfull(this, key, value, insertion);
             } else {
-                Util.insertNonfull(sibling, key, value);
+                Util.insertNonfull(sibling, key, value, insertion);
             }
             return result;
         } else {// No split
-            Util.insertNonfull(this, key, value);
+            Util.insertNonfull(this, key, value, insertion);
             return null;
         }
     }
 
+    @Override
+    default long remove(Removal<K, V> removal) {
+        // children that may hold keys in range, a key equal to a separator can be
+        // in the child to the left of the separator if keys are not unique
+        int lo = getLocation(removal.start, true);
+        int hi = getLocation(removal.finish, !removal.finishInclusive);
+        long count = 0;
+        boolean unlinked = false;
+        if (hi - lo > 1 && removal.removesAllInRange()) {
+            // every key of the children between lo and hi is in range so drop
+            // those subtrees without visiting their entries
+            for (int i = lo + 1; i < hi; i++) {
+                count += Util.free(child(i));
+            }
+            remove(lo, hi - lo - 1);
+            hi = lo + 1;
+            unlinked = true;
+        }
+        for (int i = lo; i <= hi && !removal.done(); i++) {
+            long n = child(i).remove(removal);
+            if (n > 0) {
+                setCount(i, count(i) - n);
+                count += n;
+            }
+        }
+        if (unlinked) {
+            Leaf<K, V> left = Util.lastLeaf(child(lo));
+            Leaf<K, V> right = Util.firstLeaf(child(hi));
+            left.setNext(right);
+            right.setPrevious(left);
+        }
+        for (int i = hi; i >= lo; i--) {
+            if (i <= numKeys()) {
+                Util.rebalance(this, i);
+            }
+        }
+        return count;
+    }
+
     /**
      * Returns the position where 'key' should be inserted in a non-leaf node that
      * has the given keys.  The position returned will be the first key K for which
@@ -65,7 +167,7 @@ public interface NonLeaf<K, V> extends Node<K, V> {
      */
     @Override
     default int getLocation(K key) {
-        return Util.getLocation(this, key, options().comparator(), false);
+        return getLocation(key, false);
     }
 
 }
\ No newline at end of file
@@ -6,6 +6,9 @@ import com.github.davidmoten.guavamini.Preconditions;
 
 public final class Options<K, V> {
 
+    /** the file format stores the number of keys of a node in 2 bytes unsigned */
+    public static final int MAX_KEYS = 65535;
+
     /** the maximum number of keys in the leaf node, M must be > 0 */
     private final int maxLeafKeys;
 
@@ -16,17 +19,18 @@ public final class Options<K, V> {
     private final int maxNonLeafKeys;
     private final Comparator<? super K> comparator;
     private final boolean uniqueKeys;
+    private final boolean appendOptimizedSplits;
     private final FactoryProvider<K, V> factoryProvider;
 
-    public Options(int maxLeafKeys, int maxNonLeafKeys, boolean uniqueKeys, 
+    public Options(int maxLeafKeys, int maxNonLeafKeys, boolean uniqueKeys, boolean appendOptimizedSplits,
             Comparator<? super K> comparator, FactoryProvider<K, V> factoryProvider) {
-        // only one byte used to store num keys so check values
-        Preconditions.checkArgument(0 < maxLeafKeys && maxLeafKeys <= 255);
-        Preconditions.checkArgument(0 < maxNonLeafKeys && maxNonLeafKeys <= 255);
+        Preconditions.checkArgument(0 < maxLeafKeys && maxLeafKeys <= MAX_KEYS);
+        Preconditions.checkArgument(0 < maxNonLeafKeys && maxNonLeafKeys <= MAX_KEYS);
         this.maxLeafKeys = maxLeafKeys;
         this.maxNonLeafKeys = maxNonLeafKeys;
         this.comparator = comparator;
         this.uniqueKeys = uniqueKeys;
+        this.appendOptimizedSplits = appendOptimizedSplits;
         this.factoryProvider = factoryProvider;
     }
 
@@ -46,6 +50,16 @@ public final class Options<K, V> {
         return uniqueKeys;
     }
     
+    /**
+     * Returns true if a full node receiving a key at its right edge is split so
+     * that the left node stays as full as possible.
+     * 
+     * @return true if append optimized splits are used
+     */
+    public boolean appendOptimizedSplits() {
+        return appendOptimizedSplits;
+    }
+
     public FactoryProvider<K, V> factoryProvider() {
         return factoryProvider;
     }
@@ -0,0 +1,52 @@
+package com.github.davidmoten.bplustree.internal;
+
+import java.util.Comparator;
+
+/**
+ * Describes the entries to remove from a tree: entries whose keys are in the
+ * range from {@code start} (inclusive) to {@code finish} and, if {@code value}
+ * is not null, whose value equals {@code value}. At most {@code remaining}
+ * entries are removed.
+ */
+public final class Removal<K, V> {
+    public final K start;
+    public final K finish;
+    public final boolean finishInclusive;
+    public final V value;
+    private long remaining;
+
+    public Removal(K start, K finish, boolean finishInclusive, V value, long maxEntries) {
+        this.start = start;
+        this.finish = finish;
+        this.finishInclusive = finishInclusive;
+        this.value = value;
+        this.remaining = maxEntries;
+    }
+
+    boolean beforeFinish(K key, Comparator<? super K> comparator) {
+        int c = comparator.compare(key, finish);
+        return c < 0 || (c == 0 && finishInclusive);
+    }
+
+    /**
+     * Returns true if any entry in range can be removed without looking at its
+     * value, in which case whole subtrees in range can be dropped.
+     */
+    boolean removesAllInRange() {
+        return value == null && remaining == Long.MAX_VALUE;
+    }
+
+    boolean matches(V v) {
+        return remaining > 0 && (value == null || value.equals(v));
+    }
+
+    boolean done() {
+        return remaining == 0;
+    }
+
+    void removed(long count) {
+        if (remaining != Long.MAX_VALUE) {
+            remaining -= count;
+        }
+    }
+}
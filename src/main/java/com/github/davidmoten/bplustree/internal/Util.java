@@ -8,23 +8,31 @@ final class Util {
         // prevent instantiation
     }
 
-    static <K, V> void insertNonfull(Leaf<K, V> leaf, K key, V value, int idx, int numKeys) {
+    /**
+     * Inserts into a leaf that has room for another key.
+     * 
+     * @return true if the entry was added, false if it replaced the value of an
+     *         entry with an equal key
+     */
+    static <K, V> boolean insertNonfull(Leaf<K, V> leaf, K key, V value, int idx, int numKeys) {
         // numKeys == leaf.numKeys() but might be costly to call and may have already
         // been calculated by the calling methods so we use a pased value
         if (idx < numKeys && leaf.options().uniqueKeys() && leaf.key(idx).equals(key)) {
             // We are inserting a duplicate value, simply overwrite the old one
             leaf.setValue(idx, value);
+            return false;
         } else {
             // The key we are inserting is unique
             leaf.insert(idx, key, value);
+            return true;
         }
     }
 
-    static <K, V> void insertNonfull(NonLeaf<K, V> node, K key, V value) {
+    static <K, V> void insertNonfull(NonLeaf<K, V> node, K key, V value, Insertion insertion) {
         // Simple linear search
         int index = node.getLocation(key);
         Node<K, V> child = node.child(index);
-        Split<K, V> result = child.insert(key, value);
+        Split<K, V> result = child.insert(key, value, insertion);
 
         if (result != null) {
             if (index == node.numKeys()) {
@@ -39,7 +47,11 @@ final class Util {
                 node.insert(index, result.key, result.left);
                 node.setChild(index + 1, result.right);
             }
-        } // else the current node is not affected
+            node.setCount(index, result.left.count());
+            node.setCount(index + 1, result.right.count());
+        } else if (insertion.added()) {
+            node.setCount(index, node.count(index) + 1);
+        }
     }
 
     static <K, V> int getLocation(Node<K, V> node, K key, Comparator<? super K> comparator, boolean acceptEquals) {
@@ -66,4 +78,189 @@ final class Util {
         }
     }
 
+    static <K, V> long sumCounts(NonLeaf<K, V> node, int start, int end) {
+        long sum = 0;
+        for (int i = start; i < end; i++) {
+            sum += node.count(i);
+        }
+        return sum;
+    }
+
+    /**
+     * If child {@code i} of {@code node} has fewer than half the maximum number
+     * of keys then moves keys into it from a sibling or merges it with a sibling
+     * if the keys of both fit in one node.
+     */
+    static <K, V> void rebalance(NonLeaf<K, V> node, int i) {
+        if (node.numKeys() == 0) {
+            // no sibling
+            return;
+        }
+        Node<K, V> child = node.child(i);
+        if (child instanceof Leaf) {
+            if (child.numKeys() >= node.options().maxLeafKeys() / 2) {
+                return;
+            }
+        } else if (child.numKeys() >= node.options().maxNonLeafKeys() / 2) {
+            return;
+        }
+        // balance with the right sibling unless child is the rightmost
+        int left = i < node.numKeys() ? i : i - 1;
+        if (child instanceof Leaf) {
+            rebalanceLeaves(node, left);
+        } else {
+            rebalanceNonLeaves(node, left);
+        }
+    }
+
+    private static <K, V> void rebalanceLeaves(NonLeaf<K, V> node, int i) {
+        Leaf<K, V> left = (Leaf<K, V>) node.child(i);
+        Leaf<K, V> right = (Leaf<K, V>) node.child(i + 1);
+        int leftKeys = left.numKeys();
+        int rightKeys = right.numKeys();
+        if (leftKeys + rightKeys <= node.options().maxLeafKeys()) {
+            // merge right into left
+            right.moveTo(0, rightKeys, left, leftKeys);
+            Leaf<K, V> next = right.next();
+            left.setNext(next);
+            if (next != null) {
+                next.setPrevious(left);
+            }
+            node.remove(i, 1);
+            node.setCount(i, leftKeys + rightKeys);
+            node.factory().free(right);
+        } else {
+            if (leftKeys < rightKeys) {
+                right.moveTo(0, (rightKeys - leftKeys) / 2, left, leftKeys);
+            } else {
+                int n = (leftKeys - rightKeys) / 2;
+                left.moveTo(leftKeys - n, n, right, 0);
+            }
+            node.setKey(i, right.key(0));
+            node.setCount(i, left.numKeys());
+            node.setCount(i + 1, right.numKeys());
+        }
+    }
+
+    private static <K, V> void rebalanceNonLeaves(NonLeaf<K, V> node, int i) {
+        NonLeaf<K, V> left = (NonLeaf<K, V>) node.child(i);
+        NonLeaf<K, V> right = (NonLeaf<K, V>) node.child(i + 1);
+        int leftKeys = left.numKeys();
+        int rightKeys = right.numKeys();
+        K separator = node.key(i);
+        if (leftKeys + 1 + rightKeys <= node.options().maxNonLeafKeys()) {
+            // merge the separator and right into left
+            left.setKey(leftKeys, separator);
+            for (int j = 0; j < rightKeys; j++) {
+                left.setKey(leftKeys + 1 + j, right.key(j));
+            }
+            for (int j = 0; j <= rightKeys; j++) {
+                left.setChild(leftKeys + 1 + j, right.child(j));
+                left.setCount(leftKeys + 1 + j, right.count(j));
+            }
+            left.setNumKeys(leftKeys + 1 + rightKeys);
+            long count = node.count(i) + node.count(i + 1);
+            node.remove(i, 1);
+            node.setCount(i, count);
+            node.factory().free(right);
+            // a non-leaf without keys could not balance its only child so do it
+            // now that the child has siblings
+            if (rightKeys == 0) {
+                rebalance(left, leftKeys + 1);
+            }
+            if (leftKeys == 0) {
+                rebalance(left, 0);
+            }
+        } else if (leftKeys < rightKeys) {
+            // rotate n keys from right through the separator into left
+            int n = (rightKeys - leftKeys) / 2;
+            long moved = sumCounts(right, 0, n);
+            left.setKey(leftKeys, separator);
+            for (int j = 0; j < n - 1; j++) {
+                left.setKey(leftKeys + 1 + j, right.key(j));
+            }
+            for (int j = 0; j < n; j++) {
+                left.setChild(leftKeys + 1 + j, right.child(j));
+                left.setCount(leftKeys + 1 + j, right.count(j));
+            }
+            left.setNumKeys(leftKeys + n);
+            node.setKey(i, right.key(n - 1));
+            for (int j = 0; j < rightKeys - n; j++) {
+                right.setKey(j, right.key(j + n));
+            }
+            for (int j = 0; j <= rightKeys - n; j++) {
+                right.setChild(j, right.child(j + n));
+                right.setCount(j, right.count(j + n));
+            }
+            right.setNumKeys(rightKeys - n);
+            node.setCount(i, node.count(i) + moved);
+            node.setCount(i + 1, node.count(i + 1) - moved);
+            if (leftKeys == 0) {
+                rebalance(left, 0);
+            }
+        } else {
+            // rotate n keys from left through the separator into right
+            int n = (leftKeys - rightKeys) / 2;
+            long moved = sumCounts(left, leftKeys - n + 1, leftKeys + 1);
+            for (int j = rightKeys - 1; j >= 0; j--) {
+                right.setKey(j + n, right.key(j));
+            }
+            for (int j = rightKeys; j >= 0; j--) {
+                right.setChild(j + n, right.child(j));
+                right.setCount(j + n, right.count(j));
+            }
+            right.setKey(n - 1, separator);
+            for (int j = 0; j < n - 1; j++) {
+                right.setKey(j, left.key(leftKeys - n + 1 + j));
+            }
+            for (int j = 0; j < n; j++) {
+                right.setChild(j, left.child(leftKeys - n + 1 + j));
+                right.setCount(j, left.count(leftKeys - n + 1 + j));
+            }
+            right.setNumKeys(rightKeys + n);
+            node.setKey(i, left.key(leftKeys - n));
+            left.setNumKeys(leftKeys - n);
+            node.setCount(i, node.count(i) - moved);
+            node.setCount(i + 1, node.count(i + 1) + moved);
+            if (rightKeys == 0) {
+                rebalance(right, n);
+            }
+        }
+    }
+
+    /**
+     * Frees the given node and all its descendants.
+     * 
+     * @return number of entries in the freed leaves
+     */
+    static <K, V> long free(Node<K, V> node) {
+        long count;
+        if (node instanceof NonLeaf) {
+            NonLeaf<K, V> n = (NonLeaf<K, V>) node;
+            count = 0;
+            for (int i = 0; i <= n.numKeys(); i++) {
+                count += free(n.child(i));
+            }
+        } else {
+            count = node.numKeys();
+        }
+        node.factory().free(node);
+        return count;
+    }
+
+    static <K, V> Leaf<K, V> firstLeaf(Node<K, V> node) {
+        while (node instanceof NonLeaf) {
+            node = ((NonLeaf<K, V>) node).child(0);
+        }
+        return (Leaf<K, V>) node;
+    }
+
+    static <K, V> Leaf<K, V> lastLeaf(Node<K, V> node) {
+        while (node instanceof NonLeaf) {
+            NonLeaf<K, V> n = (NonLeaf<K, V>) node;
+            node = n.child(n.numKeys());
+        }
+        return (Leaf<K, V>) node;
+    }
+
 }
@@ -1,105 +1,410 @@
 package com.github.davidmoten.bplustree.internal.file;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import com.github.davidmoten.bplustree.CacheStats;
+import com.github.davidmoten.bplustree.Entry;
 import com.github.davidmoten.bplustree.Serializer;
+import com.github.davidmoten.bplustree.internal.ExternalSort;
 import com.github.davidmoten.bplustree.internal.Factory;
 import com.github.davidmoten.bplustree.internal.LargeMappedByteBuffer;
 import com.github.davidmoten.bplustree.internal.Leaf;
 import com.github.davidmoten.bplustree.internal.Node;
+import com.github.davidmoten.bplustree.internal.NodeCursor;
 import com.github.davidmoten.bplustree.internal.NonLeaf;
 import com.github.davidmoten.bplustree.internal.Options;
+import com.github.davidmoten.bplustree.internal.util.HeapLargeByteBuffer;
+import com.github.davidmoten.bplustree.internal.util.TinyLfuCache;
+import com.github.davidmoten.guavamini.Preconditions;
 
 public final class FactoryFile<K, V> implements Factory<K, V> {
 
     private static final int NODE_TYPE_BYTES = 1;
-    private static final int NUM_KEYS_BYTES = 1;
-    private static final int NUM_NODES_BYTES = 4;
+    private static final int NUM_KEYS_BYTES = 2;
     private static final int POSITION_BYTES = 8;
+    private static final int COUNT_BYTES = 8;
     private static final long POSITION_NOT_PRESENT = -1;
-    private final Options<K, V> options;
+    // terminates a free list (position 0 holds the root position so is never a
+    // node)
+    private static final long NO_FREE_NODE = 0;
+
+    //////////////////////////////////////////////////
+    // Format of the metadata
+    // VALUES_INDEX INDEX FREE_LEAVES FREE_NON_LEAVES VALUES_ALIGNED
+    // NUM_DEAD_SEGMENTS (DEAD_SEGMENT DEAD_BYTES)*
+    // where each is 8 bytes signed long and
+    // VALUES_INDEX is the position where the next value will be written
+    // INDEX is the position where the next node will be written
+    // FREE_LEAVES is the position of the first freed leaf
+    // FREE_NON_LEAVES is the position of the first freed non-leaf
+    // VALUES_ALIGNED is 1 if no value straddles a values segment boundary
+    // NUM_DEAD_SEGMENTS is the number of values segments with dead bytes
+    // DEAD_SEGMENT is a values segment number and DEAD_BYTES its dead bytes
+    // A freed leaf holds the position of the next freed leaf where its next leaf
+    // position is normally and a freed non-leaf holds the position of the next
+    // freed non-leaf where its first child position is normally
+    //////////////////////////////////////////////////
+    private static final int METADATA_VALUES_INDEX = 0;
+    private static final int METADATA_INDEX = 8;
+    private static final int METADATA_FREE_LEAVES = 16;
+    private static final int METADATA_FREE_NON_LEAVES = 24;
+    private static final int METADATA_VALUES_ALIGNED = 32;
+    private static final int METADATA_NUM_DEAD_SEGMENTS = 40;
 
-    // a pool of LeafFile objects to use
-    private final List<LeafFile<K, V>> leavesPool;
-    private int leavesIndex = 0;
+    private final Options<K, V> options;
+    private final File directory;
 
     // position where next node will be written, first 8 bytes are for the position
     // of the root node
     private long index = POSITION_BYTES;
 
     private long valuesIndex = 0; // position where next value will be written
+
+    // heads of the lists of freed nodes available for reuse
+    private long freeLeaves = NO_FREE_NODE;
+    private long freeNonLeaves = NO_FREE_NODE;
+
     private final Serializer<K> keySerializer;
     private final Serializer<V> valueSerializer;
     private final LargeMappedByteBuffer metadata;
     private final LargeMappedByteBuffer bb;
     private final LargeMappedByteBuffer values;
     private final Runnable onClose;
+    private final boolean readView;
+
+    // if positive nodes are placed so that none straddles a multiple of this
+    // number of bytes or a segment boundary, 0 means nodes are packed
+    private final int nodeAlignmentBytes;
+    private final int segmentSizeBytes;
+
+    // maximum number of segments mapped at any one time per file set, also
+    // applied to the run files of an external sort. 0 means no limit
+    private final int maxMappedSegments;
+
+    // if true values are stored in the leaf instead of a pointer to the value in
+    // the values file
+    private final boolean valueInline;
+    private final int valueSlotBytes;
+
+    // if keys are longs or ints in natural order then searches compare keys read
+    // straight from the index as primitives rather than deserializing them, 0
+    // otherwise
+    private final int primitiveKeyBytes;
+
+    // if the key serializer is fixed size and order preserving then searches
+    // compare the serialized search key with the keys in the index, null
+    // otherwise
+    private final HeapLargeByteBuffer searchKeyBuffer;
+    // a copy of the last search key and its serialized form as big-endian longs
+    // (the last one zero padded)
+    private K searchKey;
+    private final long[] searchKeyLongs;
+
+    // true if every value lies within one values segment (a value is written at
+    // the start of the next segment rather than straddle the boundary unless it
+    // is bigger than a segment). False for files written before values were
+    // aligned
+    private boolean valuesAligned;
+
+    //////////////////////////////////////////////////
+    // Value compaction
+    // Values that are overwritten or removed leave dead bytes in the values
+    // file. A sealed values segment (one before the segment being written to)
+    // whose proportion of dead bytes is at least valueCompactionDeadRatio is
+    // compacted by walking the leaves and rewriting its live values at the end
+    // of the values file, after which its file is deleted. Dead bytes are
+    // only counted if compaction is configured (valueCompactionDeadRatio > 0)
+    // because counting them reads and deserializes every overwritten or removed
+    // value. The counts are stored in the metadata on commit
+    //////////////////////////////////////////////////
+    private final double valueCompactionDeadRatio;
+    private final int valueCompactionLeavesPerInsert;
+
+    // dead bytes by values segment number
+    private final Map<Long, Long> deadValueBytes = new HashMap<>();
+    private boolean deadValueBytesChanged;
+    private boolean deadValueBytesUncommitted;
+
+    // segments being compacted by the current cycle, empty if no cycle is running
+    private final TreeSet<Long> compacting = new TreeSet<>();
+
+    // position of the next leaf to scan in the current cycle
+    private long compactionLeaf = POSITION_NOT_PRESENT;
+
+    // compacted segments that no leaf refers to but whose relocated values are
+    // not durable until the next commit
+    private final Set<Long> compactedUncommitted = new HashSet<>();
+
+    // compacted segments whose files could not be deleted yet because read views
+    // were open
+    private final Set<Long> compacted = new HashSet<>();
+
+    //////////////////////////////////////////////////
+    // Pinned levels
+    // The NonLeaf nodes in the top pinnedLevels levels of the tree are decoded
+    // onto the heap as searches reach them so that later searches through them
+    // don't read the index. A pinned node is dropped when the node it copies is
+    // changed and decoded again when next reached. All pinned nodes are dropped
+    // when the root changes because the levels of the tree change. Read views
+    // don't pin because the writer doesn't tell them about changes
+    //////////////////////////////////////////////////
+    private final int pinnedLevels;
+
+    // pinned nodes by position
+    private final Map<Long, NonLeafPinned<K, V>> pinned = new HashMap<>();
+
+    private NonLeafPinned<K, V> pinnedRoot;
+
+    // positions in the index whose segments are pinned in bb (see root(Node))
+    private final List<Long> pinnedSegmentPositions = new ArrayList<>();
+
+    // deserialized values by position in the values file, null if not
+    // configured. A position always holds the same value because values are
+    // only appended so a read view can have its own cache. Entries of values
+    // that are overwritten or removed are dropped to free space sooner
+    private final long valueCacheBytes;
+    private final TinyLfuCache<V> valueCache;
 
     public FactoryFile(Options<K, V> options, File directory, Serializer<K> keySerializer,
-            Serializer<V> valueSerializer, int segmentSizeBytes, Runnable onClose) {
+            Serializer<V> valueSerializer, int segmentSizeBytes, int maxMappedSegments, int preallocateSegments,
+            boolean preFaultSegments, int nodeAlignmentBytes, double valueCompactionDeadRatio,
+            int valueCompactionLeavesPerInsert, int pinnedLevels, long valueCacheBytes, Runnable onClose) {
+        Preconditions.checkArgument(nodeAlignmentBytes >= 0, "nodeAlignmentBytes cannot be negative");
+        Preconditions.checkArgument(nodeAlignmentBytes == 0 || segmentSizeBytes % nodeAlignmentBytes == 0,
+                "segmentSizeBytes must be a multiple of nodeAlignmentBytes");
+        Preconditions.checkArgument(valueCompactionDeadRatio >= 0 && valueCompactionDeadRatio <= 1,
+                "valueCompactionDeadRatio must be in [0, 1]");
+        Preconditions.checkArgument(valueCompactionLeavesPerInsert >= 0,
+                "valueCompactionLeavesPerInsert cannot be negative");
+        Preconditions.checkArgument(pinnedLevels >= 0, "pinnedLevels cannot be negative");
+        Preconditions.checkArgument(valueCacheBytes >= 0, "valueCacheBytes cannot be negative");
         this.options = options;
+        this.directory = directory;
+        this.nodeAlignmentBytes = nodeAlignmentBytes;
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.maxMappedSegments = maxMappedSegments;
         this.keySerializer = keySerializer;
         this.valueSerializer = valueSerializer;
+        this.valueInline = isValueInline(valueSerializer);
+        this.valueSlotBytes = valueSlotBytes(valueSerializer);
+        this.primitiveKeyBytes = primitiveKeyBytes(keySerializer, options.comparator());
+        this.searchKeyBuffer = createSearchKeyBuffer(keySerializer, primitiveKeyBytes);
+        this.searchKeyLongs = createSearchKeyLongs(searchKeyBuffer);
+        this.valueCompactionDeadRatio = valueCompactionDeadRatio;
+        this.valueCompactionLeavesPerInsert = valueCompactionLeavesPerInsert;
+        this.pinnedLevels = pinnedLevels;
+        this.valueCacheBytes = valueCacheBytes;
+        this.valueCache = createValueCache(valueCacheBytes, valueSerializer);
         this.onClose = onClose;
-        this.bb = new LargeMappedByteBuffer(directory, segmentSizeBytes, "index-");
-        this.values = new LargeMappedByteBuffer(directory, segmentSizeBytes, "value-");
-        this.metadata = new LargeMappedByteBuffer(directory, 8192, "metadata-"); // only needs 8 bytes right now
-        this.leavesPool = createLeafPool(this, 10);
+        this.bb = new LargeMappedByteBuffer(directory, segmentSizeBytes, "index-", maxMappedSegments,
+                preallocateSegments, preFaultSegments);
+        this.values = new LargeMappedByteBuffer(directory, segmentSizeBytes, "value-", maxMappedSegments,
+                preallocateSegments, preFaultSegments);
+        this.metadata = new LargeMappedByteBuffer(directory, 8192, "metadata-");
+        this.readView = false;
+    }
+
+    private FactoryFile(FactoryFile<K, V> factory) {
+        this.options = factory.options;
+        this.directory = factory.directory;
+        this.keySerializer = factory.keySerializer;
+        this.valueSerializer = factory.valueSerializer;
+        this.valueInline = factory.valueInline;
+        this.valueSlotBytes = factory.valueSlotBytes;
+        this.primitiveKeyBytes = factory.primitiveKeyBytes;
+        this.searchKeyBuffer = createSearchKeyBuffer(keySerializer, primitiveKeyBytes);
+        this.searchKeyLongs = createSearchKeyLongs(searchKeyBuffer);
+        this.valueCompactionDeadRatio = factory.valueCompactionDeadRatio;
+        this.valueCompactionLeavesPerInsert = 0;
+        this.pinnedLevels = 0;
+        this.valueCacheBytes = factory.valueCacheBytes;
+        this.valueCache = createValueCache(valueCacheBytes, valueSerializer);
+        this.onClose = null;
+        this.nodeAlignmentBytes = factory.nodeAlignmentBytes;
+        this.segmentSizeBytes = factory.segmentSizeBytes;
+        this.maxMappedSegments = factory.maxMappedSegments;
+        this.bb = factory.bb.view();
+        this.values = factory.values.view();
+        this.metadata = factory.metadata;
+        this.readView = true;
     }
 
     //////////////////////////////////////////////////
     // Format of a Leaf
-    // NODE_TYPE NUM_KEYS (KEY VALUE)* NEXT_LEAF_POSITION
+    // NODE_TYPE NUM_KEYS KEY* VALUE* NEXT_LEAF_POSITION PREVIOUS_LEAF_POSITION
     // where
     // NODE_TYPE is one byte (0 = Leaf, 1 = NonLeaf)
-    // NUM_KEYS is one byte unsigned
+    // NUM_KEYS is 2 bytes unsigned
     // KEY is a byte array of fixed size
-    // VALUE is a byte array of fixed size
+    // VALUE is the serialized value if the value serializer is fixed size and
+    // no bigger than 8 bytes otherwise the 8 byte position of the value in the
+    // values file
     // NEXT_LEAF_POSITION is 8 bytes signed long
-    // Every Leaf has space allocated for maxLeafKeys key value pairs
+    // PREVIOUS_LEAF_POSITION is 8 bytes signed long
+    // Every Leaf has space allocated for maxLeafKeys keys followed by space for
+    // maxLeafKeys values so that a search of the keys reads contiguous bytes
     //////////////////////////////////////////////////
 
-    private static <K, V> List<LeafFile<K, V>> createLeafPool(FactoryFile<K, V> factory, int size) {
-        return IntStream //
-                .rangeClosed(1, size) //
-                .mapToObj(x -> new LeafFile<K, V>(factory, POSITION_NOT_PRESENT)).collect(Collectors.toList());
+    /**
+     * Returns the maximum number of keys of a leaf that fits in the given number
+     * of bytes.
+     * 
+     * @param nodeSizeBytes   maximum size of a leaf in bytes
+     * @param keySerializer   key serializer
+     * @param valueSerializer value serializer
+     * @return max leaf keys
+     */
+    public static int maxLeafKeys(int nodeSizeBytes, Serializer<?> keySerializer,
+            Serializer<?> valueSerializer) {
+        return maxKeys(nodeSizeBytes, NODE_TYPE_BYTES + NUM_KEYS_BYTES + 2 * POSITION_BYTES,
+                keySerializer.maxSize() + valueSlotBytes(valueSerializer));
     }
 
-    @Override
-    public Leaf<K, V> createLeaf() {
-        return getLeaf(leafNextPosition());
+    /**
+     * Returns the maximum number of keys of a non-leaf that fits in the given
+     * number of bytes.
+     * 
+     * @param nodeSizeBytes maximum size of a non-leaf in bytes
+     * @param keySerializer key serializer
+     * @return max non-leaf keys
+     */
+    public static int maxNonLeafKeys(int nodeSizeBytes, Serializer<?> keySerializer) {
+        return maxKeys(nodeSizeBytes, NODE_TYPE_BYTES + NUM_KEYS_BYTES + POSITION_BYTES + COUNT_BYTES,
+                POSITION_BYTES + COUNT_BYTES + keySerializer.maxSize());
+    }
+
+    private static boolean isValueInline(Serializer<?> valueSerializer) {
+        return valueSerializer.isFixedSize() && valueSerializer.maxSize() <= POSITION_BYTES;
+    }
+
+    private static int valueSlotBytes(Serializer<?> valueSerializer) {
+        return isValueInline(valueSerializer) ? valueSerializer.maxSize() : POSITION_BYTES;
+    }
+
+    private static int primitiveKeyBytes(Serializer<?> keySerializer, Comparator<?> comparator) {
+        if (comparator != Comparator.naturalOrder()) {
+            return 0;
+        } else if (keySerializer == Serializer.LONG) {
+            return Long.BYTES;
+        } else if (keySerializer == Serializer.INTEGER) {
+            return Integer.BYTES;
+        } else {
+            return 0;
+        }
     }
 
-    private Leaf<K, V> getLeaf(long position) {
-//        return new LeafFile<K, V>(this, position);
-        LeafFile<K, V> leaf = leavesPool.get(leavesIndex);
-        leavesIndex = (leavesIndex + 1) % leavesPool.size();
-        leaf.position(position);
-        return leaf;
+    private static HeapLargeByteBuffer createSearchKeyBuffer(Serializer<?> keySerializer, int primitiveKeyBytes) {
+        if (primitiveKeyBytes == 0 && keySerializer.isOrderPreserving() && keySerializer.isFixedSize()) {
+            // room to zero pad the last long
+            return new HeapLargeByteBuffer((keySerializer.maxSize() + Long.BYTES - 1) / Long.BYTES * Long.BYTES);
+        } else {
+            return null;
+        }
+    }
+
+    private static long[] createSearchKeyLongs(HeapLargeByteBuffer searchKeyBuffer) {
+        if (searchKeyBuffer == null) {
+            return null;
+        } else {
+            return new long[Math.toIntExact(searchKeyBuffer.capacity() / Long.BYTES)];
+        }
+    }
+
+    private static <V> TinyLfuCache<V> createValueCache(long valueCacheBytes, Serializer<V> valueSerializer) {
+        if (valueCacheBytes == 0 || isValueInline(valueSerializer)) {
+            // inline values are read straight from the leaf
+            return null;
+        } else {
+            return new TinyLfuCache<V>(valueCacheBytes);
+        }
+    }
+
+    private static int maxKeys(int nodeSizeBytes, int fixedBytes, int bytesPerKey) {
+        int maxKeys = Math.min((nodeSizeBytes - fixedBytes) / bytesPerKey, Options.MAX_KEYS);
+        Preconditions.checkArgument(maxKeys >= 2, "nodeSizeBytes too small to hold two keys");
+        return maxKeys;
+    }
+
+    @Override
+    public Leaf<K, V> createLeaf() {
+        return new LeafFile<K, V>(this, leafNextPosition());
     }
 
     private int leafBytes() {
-        return relativeLeafKeyPosition(options.maxLeafKeys()) //
-                + POSITION_BYTES; // next leaf position
+        return relativeLeafPreviousPosition() + POSITION_BYTES;
     }
 
     private long leafNextPosition() {
-        long i = index;
-        bb.position(index);
-        bb.put((byte) Leaf.TYPE);
-        bb.position(index + leafBytes() - POSITION_BYTES);
-        bb.putLong(POSITION_NOT_PRESENT);
-        // shift by max size of a leaf node: numKeys, keys, values, next leaf position
+        // reserve max size of a leaf node: numKeys, keys, values, next leaf position
         // (b+tree pointer to next leaf node)
-        index += leafBytes();
+        long i;
+        if (freeLeaves != NO_FREE_NODE) {
+            i = freeLeaves;
+            freeLeaves = bb.getLong(i + relativeLeafNextPosition());
+            leafSetNumKeys(i, 0);
+        } else {
+            i = allocate(leafBytes());
+        }
+        bb.put(i, (byte) Leaf.TYPE);
+        bb.putLong(i + relativeLeafNextPosition(), POSITION_NOT_PRESENT);
+        bb.putLong(i + relativeLeafPreviousPosition(), POSITION_NOT_PRESENT);
         return i;
     }
 
+    /**
+     * Returns the position for a new node of the given size and moves
+     * {@code index} past it. If node alignment is set then the node is placed so
+     * that it does not straddle an alignment boundary (a node bigger than the
+     * alignment starts on a boundary) and does not straddle a segment boundary.
+     * 
+     * @param nodeBytes size of the node in bytes
+     * @return position of the new node
+     */
+    private long allocate(int nodeBytes) {
+        long p = index;
+        if (nodeAlignmentBytes > 0) {
+            long boundary = (p / nodeAlignmentBytes + 1) * nodeAlignmentBytes;
+            if (nodeBytes > nodeAlignmentBytes) {
+                if (p % nodeAlignmentBytes != 0) {
+                    p = boundary;
+                }
+            } else if (p + nodeBytes > boundary) {
+                p = boundary;
+            }
+            long segmentEnd = (p / segmentSizeBytes + 1) * segmentSizeBytes;
+            if (p + nodeBytes > segmentEnd && nodeBytes <= segmentSizeBytes) {
+                p = segmentEnd;
+            }
+        }
+        index = p + nodeBytes;
+        return p;
+    }
+
     private int relativeLeafKeyPosition(int i) {
-        return NODE_TYPE_BYTES + NUM_KEYS_BYTES + i * (keySerializer.maxSize() + POSITION_BYTES);
+        return NODE_TYPE_BYTES + NUM_KEYS_BYTES + i * keySerializer.maxSize();
+    }
+
+    private int relativeLeafValuePosition(int i) {
+        return relativeLeafKeyPosition(options.maxLeafKeys()) + i * valueSlotBytes;
+    }
+
+    private int relativeLeafNextPosition() {
+        return relativeLeafValuePosition(options.maxLeafKeys());
+    }
+
+    private int relativeLeafPreviousPosition() {
+        return relativeLeafNextPosition() + POSITION_BYTES;
     }
 
     public K leafKey(long position, int i) {
@@ -108,104 +413,371 @@ public final class FactoryFile<K, V> implements Factory<K, V> {
         return keySerializer.read(bb);
     }
 
+    boolean searchesKeysInPlace() {
+        return primitiveKeyBytes > 0 || searchKeyBuffer != null;
+    }
+
+    int leafLocation(long position, K key, boolean acceptEquals) {
+        return location(position + relativeLeafKeyPosition(0), leafNumKeys(position), key, acceptEquals);
+    }
+
+    int nonLeafLocation(long position, K key, boolean acceptEquals) {
+        return location(position + relativeNonLeafKeyPosition(0), nonLeafNumKeys(position), key, acceptEquals);
+    }
+
+    /**
+     * Binary search of the keys starting at the given position without
+     * deserializing them with the same result as {@code Util.getLocation}.
+     */
+    private int location(long keysPosition, int numKeys, K key, boolean acceptEquals) {
+        if (primitiveKeyBytes > 0) {
+            long k = ((Number) key).longValue();
+            int lo = 0;
+            int hi = numKeys;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                long p = keysPosition + (long) mid * primitiveKeyBytes;
+                long x = primitiveKeyBytes == Long.BYTES ? bb.getLong(p) : bb.getInt(p);
+                if (k < x || (acceptEquals && k == x)) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            return lo;
+        } else {
+            encodeSearchKey(key);
+            int keyBytes = keySerializer.maxSize();
+            int lo = 0;
+            int hi = numKeys;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = compareSearchKey(keysPosition + (long) mid * keyBytes, keyBytes);
+                if (c < 0 || (acceptEquals && c == 0)) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            return lo;
+        }
+    }
+
+    private void encodeSearchKey(K key) {
+        if (searchKey != null && searchKey.equals(key)) {
+            return;
+        }
+        int keyBytes = keySerializer.maxSize();
+        for (int i = 0; i < searchKeyLongs.length; i++) {
+            searchKeyBuffer.putLong(i * Long.BYTES, 0);
+        }
+        searchKeyBuffer.position(0);
+        keySerializer.write(searchKeyBuffer, key);
+        if (searchKeyBuffer.position() != keyBytes) {
+            throw new IllegalArgumentException(
+                    "fixed size key serializer wrote " + searchKeyBuffer.position() + " bytes, expected " + keyBytes);
+        }
+        for (int i = 0; i < searchKeyLongs.length; i++) {
+            searchKeyLongs[i] = searchKeyBuffer.getLong(i * Long.BYTES);
+        }
+        // keep a copy in case the caller changes the key object
+        searchKeyBuffer.position(0);
+        searchKey = keySerializer.read(searchKeyBuffer);
+    }
+
+    /**
+     * Compares the search key with the serialized key at the given position in
+     * the index as unsigned bytes, a long at a time.
+     */
+    private int compareSearchKey(long position, int keyBytes) {
+        int i = 0;
+        for (; i + Long.BYTES <= keyBytes; i += Long.BYTES) {
+            int c = Long.compareUnsigned(searchKeyLongs[i / Long.BYTES], bb.getLong(position + i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        for (; i < keyBytes; i++) {
+            int a = (int) (searchKeyLongs[i / Long.BYTES] >>> (Long.SIZE - Byte.SIZE * (i % Long.BYTES + 1))) & 0xFF;
+            int b = bb.get(position + i) & 0xFF;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
     public int leafNumKeys(long position) {
-        bb.position(position + NODE_TYPE_BYTES);
-        return bb.get() & 0xFF;
+        return bb.getShort(position + NODE_TYPE_BYTES) & 0xFFFF;
     }
 
     public void leafSetNumKeys(long position, int numKeys) {
-        bb.position(position + NODE_TYPE_BYTES);
-        bb.put((byte) numKeys);
+        bb.putShort(position + NODE_TYPE_BYTES, (short) numKeys);
     }
-    
+
     public V leafValue(long position, int i) {
-        long p = position + relativeLeafKeyPosition(i) + keySerializer.maxSize();
-        bb.position(p);
-        long valuePos = bb.getLong();
-        values.position(valuePos);
-        return valueSerializer.read(values);
+        long p = position + relativeLeafValuePosition(i);
+        if (valueInline) {
+            bb.position(p);
+            return valueSerializer.read(bb);
+        } else {
+            return readValue(bb.getLong(p));
+        }
+    }
+
+    public Supplier<V> leafLazyValue(long position, int i) {
+        if (valueInline) {
+            // already in the leaf being read
+            V value = leafValue(position, i);
+            return () -> value;
+        } else {
+            long valuePos = bb.getLong(position + relativeLeafValuePosition(i));
+            return () -> readValue(valuePos);
+        }
+    }
+
+    private V readValue(long valuePos) {
+        if (valueCache == null) {
+            values.position(valuePos);
+            return valueSerializer.read(values);
+        }
+        V value = valueCache.get(valuePos);
+        if (value == null) {
+            values.position(valuePos);
+            value = valueSerializer.read(values);
+            if (value != null) {
+                valueCache.put(valuePos, value, (int) (values.position() - valuePos));
+            }
+        }
+        return value;
     }
 
     public void leafSetValue(long position, int i, V value) {
-        long p = position + relativeLeafKeyPosition(i) + keySerializer.maxSize();
-        bb.position(p);
-        bb.putLong(valuesIndex);
-        values.position(valuesIndex);
-        valueSerializer.write(values, value);
-        valuesIndex = values.position();
+        long p = position + relativeLeafValuePosition(i);
+        if (!valueInline) {
+            valueDead(bb.getLong(p));
+        }
+        writeValue(p, value);
     }
 
-    public void leafInsert(long position, int i, K key, V value) {
-        int relativeStart = relativeLeafKeyPosition(i);
-        int relativeFinish = relativeLeafKeyPosition(leafNumKeys(position));
+    /**
+     * Writes the value slot at the given position in the index.
+     */
+    private void writeValue(long p, V value) {
+        if (valueInline) {
+            bb.position(p);
+            valueSerializer.write(bb, value);
+        } else {
+            long start = valuesIndex;
+            values.position(start);
+            valueSerializer.write(values, value);
+            long end = values.position();
+            if (end > start && segment(start) != segment(end - 1)) {
+                if (end - start <= segmentSizeBytes) {
+                    // write it again at the start of the next segment so that
+                    // compaction of a segment only has to look for values that
+                    // start in it
+                    start = skipToNextSegment(start);
+                    values.position(start);
+                    valueSerializer.write(values, value);
+                    end = values.position();
+                } else {
+                    valuesAligned = false;
+                }
+            }
+            bb.putLong(p, start);
+            valuesIndex = end;
+        }
+    }
 
-        bb.position(position + relativeStart);
-        byte[] bytes = new byte[relativeFinish - relativeStart];
-        bb.get(bytes);
+    /**
+     * Appends the given serialized value to the values file in the same way as
+     * {@link #writeValue(long, Object)} and returns its position.
+     */
+    private long appendValue(byte[] bytes) {
+        long start = valuesIndex;
+        if (bytes.length > 0 && segment(start) != segment(start + bytes.length - 1)) {
+            if (bytes.length <= segmentSizeBytes) {
+                start = skipToNextSegment(start);
+            } else {
+                valuesAligned = false;
+            }
+        }
+        values.put(start, bytes, 0, bytes.length);
+        valuesIndex = start + bytes.length;
+        return start;
+    }
+
+    /**
+     * Returns the start of the segment after the one containing {@code position}.
+     * The skipped bytes are counted as dead.
+     */
+    private long skipToNextSegment(long position) {
+        long next = (segment(position) + 1) * segmentSizeBytes;
+        deadValueBytes(segment(position), next - position);
+        return next;
+    }
 
-        // copy bytes across one key
-        bb.position(position + relativeLeafKeyPosition(i + 1));
-        bb.put(bytes);
+    private long segment(long valuePosition) {
+        return valuePosition / segmentSizeBytes;
+    }
+
+    private int valueSize(long valuePosition) {
+        if (valueSerializer.isFixedSize()) {
+            return valueSerializer.maxSize();
+        } else {
+            values.position(valuePosition);
+            valueSerializer.read(values);
+            return Math.toIntExact(values.position() - valuePosition);
+        }
+    }
+
+    /**
+     * Records that the value at the given position in the values file is no
+     * longer referenced.
+     */
+    private void valueDead(long valuePosition) {
+        if (valueCache != null) {
+            valueCache.remove(valuePosition);
+        }
+        if (valueCompaction()) {
+            deadValueBytes(segment(valuePosition), valueSize(valuePosition));
+        }
+    }
+
+    private boolean valueCompaction() {
+        return valueCompactionDeadRatio > 0;
+    }
+
+    private void deadValueBytes(long segment, long bytes) {
+        if (!valueCompaction()) {
+            return;
+        }
+        deadValueBytes.merge(segment, bytes, Long::sum);
+        deadValueBytesChanged = true;
+        deadValueBytesUncommitted = true;
+    }
+
+    public void leafInsert(long position, int i, K key, V value) {
+        int numKeys = leafNumKeys(position);
+
+        // shift keys and values across one
+        copy(position + relativeLeafKeyPosition(i), position + relativeLeafKeyPosition(i + 1),
+                (numKeys - i) * keySerializer.maxSize());
+        copy(position + relativeLeafValuePosition(i), position + relativeLeafValuePosition(i + 1),
+                (numKeys - i) * valueSlotBytes);
 
         // write inserted key and value
-        long p = position + relativeStart;
-        bb.position(p);
+        bb.position(position + relativeLeafKeyPosition(i));
         keySerializer.write(bb, key);
-        bb.position(p + keySerializer.maxSize());
-        bb.putLong(valuesIndex);
-        values.position(valuesIndex);
-        valueSerializer.write(values, value);
-        valuesIndex = values.position();
+        writeValue(position + relativeLeafValuePosition(i), value);
         // increment number of keys in leaf node
-        leafSetNumKeys(position, leafNumKeys(position) + 1);
+        leafSetNumKeys(position, numKeys + 1);
+    }
+
+    private void copy(long from, long to, int length) {
+        byte[] bytes = new byte[length];
+        bb.get(from, bytes, 0, length);
+        bb.put(to, bytes, 0, length);
     }
 
     public void leafMove(long position, int start, int length, LeafFile<K, V> other) {
-        int relativeStart = relativeLeafKeyPosition(start);
-        int relativeEnd = relativeLeafKeyPosition(start + length);
-        byte[] bytes = new byte[relativeEnd - relativeStart];
-        bb.position(position + relativeStart);
-        bb.get(bytes);
-        long p = other.position() + relativeLeafKeyPosition(0);
-        bb.position(p);
-        bb.put(bytes);
+        copy(position + relativeLeafKeyPosition(start), other.position() + relativeLeafKeyPosition(0),
+                length * keySerializer.maxSize());
+        copy(position + relativeLeafValuePosition(start), other.position() + relativeLeafValuePosition(0),
+                length * valueSlotBytes);
         // set the number of keys in source node to be `start`
         leafSetNumKeys(position, start);
         leafSetNumKeys(other.position(), length);
     }
 
+    public void leafRemove(long position, int start, int length) {
+        if (!valueInline) {
+            for (int i = start; i < start + length; i++) {
+                valueDead(bb.getLong(position + relativeLeafValuePosition(i)));
+            }
+        }
+        shiftLeft(position, start, length);
+    }
+
+    private void shiftLeft(long position, int start, int length) {
+        int numKeys = leafNumKeys(position);
+        // shift keys and values after the removed ones to the left
+        copy(position + relativeLeafKeyPosition(start + length), position + relativeLeafKeyPosition(start),
+                (numKeys - start - length) * keySerializer.maxSize());
+        copy(position + relativeLeafValuePosition(start + length), position + relativeLeafValuePosition(start),
+                (numKeys - start - length) * valueSlotBytes);
+        leafSetNumKeys(position, numKeys - length);
+    }
+
+    public void leafMoveTo(long position, int start, int length, LeafFile<K, V> other, int otherIndex) {
+        long otherPosition = other.position();
+        int otherNumKeys = leafNumKeys(otherPosition);
+        // make room in other
+        copy(otherPosition + relativeLeafKeyPosition(otherIndex),
+                otherPosition + relativeLeafKeyPosition(otherIndex + length),
+                (otherNumKeys - otherIndex) * keySerializer.maxSize());
+        copy(otherPosition + relativeLeafValuePosition(otherIndex),
+                otherPosition + relativeLeafValuePosition(otherIndex + length),
+                (otherNumKeys - otherIndex) * valueSlotBytes);
+        // value slots are copied as is so non-inline values are not rewritten
+        copy(position + relativeLeafKeyPosition(start), otherPosition + relativeLeafKeyPosition(otherIndex),
+                length * keySerializer.maxSize());
+        copy(position + relativeLeafValuePosition(start), otherPosition + relativeLeafValuePosition(otherIndex),
+                length * valueSlotBytes);
+        leafSetNumKeys(otherPosition, otherNumKeys + length);
+        shiftLeft(position, start, length);
+        if (!compacting.isEmpty()) {
+            // the values may have moved from a leaf that compaction has not reached
+            // to one that it has already passed
+            relocateValues(otherPosition, otherIndex, otherIndex + length);
+        }
+    }
+
     public void leafSetNext(long position, LeafFile<K, V> sibling) {
-        long p = position + relativeLeafKeyPosition(options.maxLeafKeys());
-        long v;
-        if (sibling == null) {
-            v = POSITION_NOT_PRESENT;
+        bb.putLong(position + relativeLeafNextPosition(), positionOf(sibling));
+    }
+
+    public LeafFile<K, V> leafNext(long position) {
+        return leafAt(bb.getLong(position + relativeLeafNextPosition()));
+    }
+
+    public void leafSetPrevious(long position, LeafFile<K, V> sibling) {
+        bb.putLong(position + relativeLeafPreviousPosition(), positionOf(sibling));
+    }
+
+    public LeafFile<K, V> leafPrevious(long position) {
+        return leafAt(bb.getLong(position + relativeLeafPreviousPosition()));
+    }
+
+    private static long positionOf(LeafFile<?, ?> leaf) {
+        if (leaf == null) {
+            return POSITION_NOT_PRESENT;
         } else {
-            v = sibling.position();
+            return leaf.position();
         }
-        bb.position(p);
-        bb.putLong(v);
     }
 
-    public LeafFile<K, V> leafNext(long position) {
-        bb.position(position + relativeLeafKeyPosition(options.maxLeafKeys()));
-        long p = bb.getLong();
-        if (p == POSITION_NOT_PRESENT) {
+    private LeafFile<K, V> leafAt(long position) {
+        if (position == POSITION_NOT_PRESENT) {
             return null;
         } else {
-            return new LeafFile<K, V>(this, p);
+            return new LeafFile<K, V>(this, position);
         }
     }
 
     //////////////////////////////////////////////////
     // Format of a NonLeaf
-    // NODE_TYPE NUM_KEYS (LEFT_CHILD_POSITION KEY)* RIGHT_CHILD_POSITION
+    // NODE_TYPE NUM_KEYS KEY* CHILD_POSITION* CHILD_COUNT*
     // where
     // NODE_TYPE is one byte (0 = Leaf, 1 = NonLeaf)
-    // NUM_KEYS is 1 byte unsigned
-    // LEFT_CHILD_POSITION is 8 bytes signed long
+    // NUM_KEYS is 2 bytes unsigned
     // KEY is a fixed size byte array
-    // RIGHT_CHILD_POSITION is 8 bytes signed long
-    // Every NonLeaf has space allocated for maxNonLeafKeys keys
+    // CHILD_POSITION is 8 bytes signed long, child i is to the left of key i and
+    // the last child is to the right of the last key
+    // CHILD_COUNT is 8 bytes signed long, the number of entries under child i
+    // Every NonLeaf has space allocated for maxNonLeafKeys keys followed by space
+    // for maxNonLeafKeys + 1 child positions and maxNonLeafKeys + 1 child counts
     //////////////////////////////////////////////////
 
     @Override
@@ -216,91 +788,219 @@ public final class FactoryFile<K, V> implements Factory<K, V> {
     private int nonLeafBytes() {
         // every key has a child node to the left and the final key has a child node to
         // the right as well as the left
-        return NODE_TYPE_BYTES + NUM_NODES_BYTES + options.maxNonLeafKeys() * (POSITION_BYTES + keySerializer.maxSize())
-                + POSITION_BYTES;
+        return relativeNonLeafCountPosition(options.maxNonLeafKeys() + 1);
     }
 
     private long nextNonLeafPosition() {
-        long i = index;
-        bb.position(index);
-        bb.put((byte) NonLeaf.TYPE);
-        index += nonLeafBytes();
+        long i;
+        if (freeNonLeaves != NO_FREE_NODE) {
+            i = freeNonLeaves;
+            freeNonLeaves = bb.getLong(i + relativeNonLeafChildPosition(0));
+            nonLeafSetNumKeys(i, 0);
+        } else {
+            i = allocate(nonLeafBytes());
+        }
+        bb.put(i, (byte) NonLeaf.TYPE);
         return i;
     }
 
     public void nonLeafSetNumKeys(long position, int numKeys) {
-        bb.position(position + NODE_TYPE_BYTES);
-        bb.put((byte) numKeys);
+        unpin(position);
+        bb.putShort(position + NODE_TYPE_BYTES, (short) numKeys);
     }
 
     public int nonLeafNumKeys(long position) {
-        bb.position(position + NODE_TYPE_BYTES);
-        return bb.get() & 0xFF;
+        return bb.getShort(position + NODE_TYPE_BYTES) & 0xFFFF;
     }
 
     public void nonLeafSetChild(long position, int i, NodeFile node) {
-        long p = position + relativePositionNonLeafEntry(i);
-        bb.position(p);
-        bb.putLong(node.position());
+        unpin(position);
+        bb.putLong(position + relativeNonLeafChildPosition(i), node.position());
+    }
+
+    private int relativeNonLeafKeyPosition(int i) {
+        return NODE_TYPE_BYTES + NUM_KEYS_BYTES + i * keySerializer.maxSize();
+    }
+
+    private int relativeNonLeafChildPosition(int i) {
+        return relativeNonLeafKeyPosition(options.maxNonLeafKeys()) + i * POSITION_BYTES;
+    }
+
+    private int relativeNonLeafCountPosition(int i) {
+        return relativeNonLeafChildPosition(options.maxNonLeafKeys() + 1) + i * COUNT_BYTES;
     }
 
-    private int relativePositionNonLeafEntry(int i) {
-        return NODE_TYPE_BYTES + NUM_KEYS_BYTES + i * (POSITION_BYTES + keySerializer.maxSize());
+    public long nonLeafCount(long position, int i) {
+        return bb.getLong(position + relativeNonLeafCountPosition(i));
+    }
+
+    public void nonLeafSetCount(long position, int i, long count) {
+        // counts don't affect searches so pinned copies stay valid
+        bb.putLong(position + relativeNonLeafCountPosition(i), count);
     }
 
     public Node<K, V> nonLeafChild(long position, int i) {
-        bb.position(position + relativePositionNonLeafEntry(i));
-        long pos = bb.getLong();
+        long pos = bb.getLong(position + relativeNonLeafChildPosition(i));
         return readNode(pos);
     }
 
     private Node<K, V> readNode(long pos) {
-        bb.position(pos);
-        int type = bb.get();
+        int type = bb.get(pos);
         if (type == Leaf.TYPE) {
-            return new LeafFile<K,V>(this, pos);
-//            return getLeaf(pos);
+            return new LeafFile<K, V>(this, pos);
         } else {
             return new NonLeafFile<K, V>(this, pos);
         }
     }
 
+    @Override
+    public NodeCursor<K, V> cursor() {
+        return new FileCursor();
+    }
+
+    /**
+     * Repositions one LeafFile and one NonLeafFile object instead of creating a
+     * node object per node visited.
+     */
+    private final class FileCursor implements NodeCursor<K, V> {
+
+        private final LeafFile<K, V> leaf = new LeafFile<K, V>(FactoryFile.this, POSITION_NOT_PRESENT);
+        private final NonLeafFile<K, V> nonLeaf = new NonLeafFile<K, V>(FactoryFile.this, POSITION_NOT_PRESENT);
+
+        @Override
+        public Node<K, V> start(Node<K, V> root) {
+            if (pinnedLevels == 0 || root instanceof Leaf) {
+                return root;
+            }
+            if (pinnedRoot == null || pinnedRoot.stale) {
+                pinnedRoot = pin(((NodeFile) root).position(), 0);
+            }
+            return pinnedRoot;
+        }
+
+        @Override
+        public Node<K, V> child(NonLeaf<K, V> node, int i) {
+            long pos;
+            if (node instanceof NonLeafPinned) {
+                NonLeafPinned<K, V> p = (NonLeafPinned<K, V>) node;
+                if (p.pinnedChildren != null) {
+                    NonLeafPinned<K, V> child = p.pinnedChildren[i];
+                    if (child == null || child.stale) {
+                        child = pin(p.children[i], p.level + 1);
+                        p.pinnedChildren[i] = child;
+                    }
+                    return child;
+                }
+                pos = p.children[i];
+            } else {
+                pos = bb.getLong(((NonLeafFile<K, V>) node).position() + relativeNonLeafChildPosition(i));
+            }
+            if (bb.get(pos) == Leaf.TYPE) {
+                leaf.position(pos);
+                return leaf;
+            } else {
+                nonLeaf.position(pos);
+                return nonLeaf;
+            }
+        }
+
+        @Override
+        public Leaf<K, V> next(Leaf<K, V> node) {
+            return leafAt(((LeafFile<K, V>) node).position() + relativeLeafNextPosition());
+        }
+
+        @Override
+        public Leaf<K, V> previous(Leaf<K, V> node) {
+            return leafAt(((LeafFile<K, V>) node).position() + relativeLeafPreviousPosition());
+        }
+
+        private Leaf<K, V> leafAt(long linkPosition) {
+            long pos = bb.getLong(linkPosition);
+            if (pos == POSITION_NOT_PRESENT) {
+                return null;
+            } else {
+                leaf.position(pos);
+                return leaf;
+            }
+        }
+    }
+
+    private NonLeafPinned<K, V> pin(long position, int level) {
+        NonLeafPinned<K, V> node = pinned.get(position);
+        if (node != null) {
+            return node;
+        }
+        int numKeys = nonLeafNumKeys(position);
+        Object[] keys = new Object[numKeys];
+        long[] primitiveKeys = primitiveKeyBytes > 0 ? new long[numKeys] : null;
+        for (int i = 0; i < numKeys; i++) {
+            keys[i] = nonLeafKey(position, i);
+            if (primitiveKeys != null) {
+                primitiveKeys[i] = ((Number) keys[i]).longValue();
+            }
+        }
+        long[] children = new long[numKeys + 1];
+        for (int i = 0; i <= numKeys; i++) {
+            children[i] = bb.getLong(position + relativeNonLeafChildPosition(i));
+        }
+        NonLeafPinned<K, V>[] pinnedChildren;
+        if (level + 1 < pinnedLevels && bb.get(children[0]) == NonLeaf.TYPE) {
+            @SuppressWarnings("unchecked")
+            NonLeafPinned<K, V>[] array = (NonLeafPinned<K, V>[]) new NonLeafPinned<?, ?>[numKeys + 1];
+            pinnedChildren = array;
+        } else {
+            pinnedChildren = null;
+        }
+        node = new NonLeafPinned<K, V>(this, position, level, keys, primitiveKeys, children, pinnedChildren);
+        pinned.put(position, node);
+        return node;
+    }
+
+    private void unpin(long position) {
+        if (!pinned.isEmpty()) {
+            NonLeafPinned<K, V> node = pinned.remove(position);
+            if (node != null) {
+                node.stale = true;
+            }
+        }
+    }
+
     public K nonLeafKey(long position, int i) {
-        bb.position(position + relativePositionNonLeafEntry(i) + POSITION_BYTES);
+        bb.position(position + relativeNonLeafKeyPosition(i));
         return keySerializer.read(bb);
     }
 
     public void nonLeafSetKey(long position, int i, K key) {
-        bb.position(position + relativePositionNonLeafEntry(i) + POSITION_BYTES);
+        unpin(position);
+        bb.position(position + relativeNonLeafKeyPosition(i));
         keySerializer.write(bb, key);
     }
 
     public void nonLeafMove(long position, int mid, int length, NonLeafFile<K, V> other) {
-        // read array corresponding to latter half of source node and put at beginning
-        // of other node
-        int relativeStart = relativePositionNonLeafEntry(mid);
-        int size = relativePositionNonLeafEntry(mid + length + 1) - relativeStart;
-        bb.position(position + relativeStart);
-        byte[] bytes = new byte[size];
-        bb.get(bytes);
-        long newPosition = other.position() + relativePositionNonLeafEntry(0);
-        bb.position(newPosition);
-        bb.put(bytes);
+        // copy the keys and children corresponding to latter half of source node to
+        // the beginning of other node
+        copy(position + relativeNonLeafKeyPosition(mid), other.position() + relativeNonLeafKeyPosition(0),
+                length * keySerializer.maxSize());
+        copy(position + relativeNonLeafChildPosition(mid), other.position() + relativeNonLeafChildPosition(0),
+                (length + 1) * POSITION_BYTES);
+        copy(position + relativeNonLeafCountPosition(mid), other.position() + relativeNonLeafCountPosition(0),
+                (length + 1) * COUNT_BYTES);
         nonLeafSetNumKeys(position, mid - 1);
         nonLeafSetNumKeys(other.position(), length);
     }
 
     public void nonLeafInsert(long position, int i, K key, NodeFile left) {
         int numKeys = nonLeafNumKeys(position);
-        int relativeStart = relativePositionNonLeafEntry(i);
-        int relativeEnd = relativePositionNonLeafEntry(numKeys) + POSITION_BYTES;
-        bb.position(position + relativeStart);
-        byte[] bytes = new byte[relativeEnd - relativeStart];
-        bb.get(bytes);
-        bb.position(position + relativePositionNonLeafEntry(i + 1));
-        bb.put(bytes);
-        bb.position(position + relativeStart);
-        bb.putLong(left.position());
+        // shift keys from i and children and their counts from i (including the
+        // rightmost child) across one
+        copy(position + relativeNonLeafKeyPosition(i), position + relativeNonLeafKeyPosition(i + 1),
+                (numKeys - i) * keySerializer.maxSize());
+        copy(position + relativeNonLeafChildPosition(i), position + relativeNonLeafChildPosition(i + 1),
+                (numKeys + 1 - i) * POSITION_BYTES);
+        copy(position + relativeNonLeafCountPosition(i), position + relativeNonLeafCountPosition(i + 1),
+                (numKeys + 1 - i) * COUNT_BYTES);
+        bb.putLong(position + relativeNonLeafChildPosition(i), left.position());
+        bb.position(position + relativeNonLeafKeyPosition(i));
         keySerializer.write(bb, key);
         nonLeafSetNumKeys(position, numKeys + 1);
     }
@@ -314,39 +1014,247 @@ public final class FactoryFile<K, V> implements Factory<K, V> {
         }
     }
 
+    @Override
+    public void free(Node<K, V> node) {
+        long position = ((NodeFile) node).position();
+        if (node instanceof Leaf) {
+            // value positions are never reused so cached values of the leaf are
+            // left to be evicted rather than read the leaf to drop them
+            if (!valueInline && valueCompaction()) {
+                int numKeys = leafNumKeys(position);
+                for (int i = 0; i < numKeys; i++) {
+                    valueDead(bb.getLong(position + relativeLeafValuePosition(i)));
+                }
+            }
+            if (position == compactionLeaf) {
+                compactionLeaf = bb.getLong(position + relativeLeafNextPosition());
+            }
+            bb.putLong(position + relativeLeafNextPosition(), freeLeaves);
+            freeLeaves = position;
+        } else {
+            unpin(position);
+            bb.putLong(position + relativeNonLeafChildPosition(0), freeNonLeaves);
+            freeNonLeaves = position;
+        }
+    }
+
     @Override
     public void commit() {
         values.commit();
-        metadata.position(0);
-        metadata.putLong(valuesIndex);
+        metadata.putLong(METADATA_VALUES_INDEX, valuesIndex);
+        metadata.putLong(METADATA_INDEX, index);
+        metadata.putLong(METADATA_FREE_LEAVES, freeLeaves);
+        metadata.putLong(METADATA_FREE_NON_LEAVES, freeNonLeaves);
+        metadata.putLong(METADATA_VALUES_ALIGNED, valuesAligned ? 1 : 0);
+        if (deadValueBytesUncommitted) {
+            writeDeadValueBytes();
+            deadValueBytesUncommitted = false;
+        }
         metadata.commit();
         bb.commit();
+        if (!compactedUncommitted.isEmpty()) {
+            compacted.addAll(compactedUncommitted);
+            compactedUncommitted.clear();
+            deleteCompactedSegments();
+        }
+    }
+
+    private void writeDeadValueBytes() {
+        long p = METADATA_NUM_DEAD_SEGMENTS;
+        metadata.putLong(p, deadValueBytes.size());
+        for (Map.Entry<Long, Long> entry : deadValueBytes.entrySet()) {
+            metadata.putLong(p += 8, entry.getKey());
+            metadata.putLong(p += 8, entry.getValue());
+        }
+    }
+
+    private void readDeadValueBytes() {
+        long p = METADATA_NUM_DEAD_SEGMENTS;
+        // 0 in files written before dead bytes were stored
+        long n = metadata.getLong(p);
+        for (long i = 0; i < n; i++) {
+            deadValueBytes.put(metadata.getLong(p += 8), metadata.getLong(p += 8));
+        }
+        // a compaction cycle may be due
+        deadValueBytesChanged = n > 0;
     }
 
     @Override
     public void root(Node<K, V> node) {
-        bb.position(0);
-        bb.putLong(((NodeFile) node).position());
+        long position = ((NodeFile) node).position();
+        bb.putLong(0, position);
+        // keep the segments of the root pointer and of the first two levels of the
+        // tree mapped because nearly every search reads them. Children added to
+        // the root later are pinned when the root next moves
+        for (long p : pinnedSegmentPositions) {
+            bb.unpin(p);
+        }
+        pinnedSegmentPositions.clear();
+        pinnedSegmentPositions.add(0L);
+        pinnedSegmentPositions.add(position);
+        if (bb.get(position) == NonLeaf.TYPE) {
+            int numKeys = nonLeafNumKeys(position);
+            // don't pin more than half of the segments that can be mapped
+            if (maxMappedSegments == 0 || numKeys + 3 <= maxMappedSegments / 2) {
+                for (int i = 0; i <= numKeys; i++) {
+                    pinnedSegmentPositions.add(bb.getLong(position + relativeNonLeafChildPosition(i)));
+                }
+            }
+        }
+        for (long p : pinnedSegmentPositions) {
+            bb.pin(p);
+        }
+        pinned.clear();
+        pinnedRoot = null;
     }
 
     @Override
     public Node<K, V> loadOrCreateRoot() {
-        bb.position(0);
-        long rootPosition = bb.getLong();
-        if (rootPosition == 0) {
-            bb.position(0);
-            bb.putLong(POSITION_BYTES);
+        long rootPosition = bb.getLong(0);
+        if (readView) {
+            return readNode(rootPosition);
+        } else if (rootPosition == 0) {
+            valuesAligned = true;
+            bb.putLong(0, POSITION_BYTES);
             return createLeaf();
         } else {
-            metadata.position(0);
-            valuesIndex = metadata.getLong(); 
+            valuesIndex = metadata.getLong(METADATA_VALUES_INDEX);
+            long storedIndex = metadata.getLong(METADATA_INDEX);
+            if (storedIndex != 0) {
+                // not present in files written before the index was stored
+                index = storedIndex;
+            }
+            freeLeaves = metadata.getLong(METADATA_FREE_LEAVES);
+            freeNonLeaves = metadata.getLong(METADATA_FREE_NON_LEAVES);
+            valuesAligned = metadata.getLong(METADATA_VALUES_ALIGNED) == 1;
+            readDeadValueBytes();
             return readNode(rootPosition);
         }
     }
 
+    @Override
+    public void afterInsert() {
+        if (valueCompactionLeavesPerInsert > 0) {
+            compactValues(valueCompactionLeavesPerInsert);
+        }
+    }
+
+    @Override
+    public boolean compactValues(int maxLeaves) {
+        if (valueInline || !valueCompaction()) {
+            return true;
+        }
+        deleteCompactedSegments();
+        if (compacting.isEmpty() && !startCompaction()) {
+            return true;
+        }
+        for (int n = 0; n < maxLeaves && compactionLeaf != POSITION_NOT_PRESENT; n++) {
+            relocateValues(compactionLeaf, 0, leafNumKeys(compactionLeaf));
+            compactionLeaf = bb.getLong(compactionLeaf + relativeLeafNextPosition());
+        }
+        if (compactionLeaf != POSITION_NOT_PRESENT) {
+            return false;
+        }
+        // no leaf refers to the compacted segments now so once the relocated
+        // values are durable (the next commit) the segments can go
+        for (Long segment : compacting) {
+            deadValueBytes.remove(segment);
+            deadValueBytesUncommitted = true;
+            compactedUncommitted.add(segment);
+        }
+        compacting.clear();
+        return true;
+    }
+
+    private boolean startCompaction() {
+        if (!deadValueBytesChanged) {
+            return false;
+        }
+        deadValueBytesChanged = false;
+        long writeSegment = segment(valuesIndex);
+        for (Map.Entry<Long, Long> entry : deadValueBytes.entrySet()) {
+            long segment = entry.getKey();
+            if (segment < writeSegment && !compacted.contains(segment)
+                    && !compactedUncommitted.contains(segment)
+                    && entry.getValue() >= valueCompactionDeadRatio * segmentSizeBytes) {
+                compacting.add(segment);
+            }
+        }
+        if (compacting.isEmpty()) {
+            return false;
+        }
+        long p = bb.getLong(0);
+        while (bb.get(p) != Leaf.TYPE) {
+            p = bb.getLong(p + relativeNonLeafChildPosition(0));
+        }
+        compactionLeaf = p;
+        return true;
+    }
+
+    /**
+     * Rewrites the values of the given leaf slots that lie in a segment being
+     * compacted at the end of the values file.
+     */
+    private void relocateValues(long leafPosition, int start, int finish) {
+        for (int i = start; i < finish; i++) {
+            long slot = leafPosition + relativeLeafValuePosition(i);
+            long p = bb.getLong(slot);
+            long segment = segment(p);
+            boolean relocate;
+            if (compacting.contains(segment)) {
+                relocate = true;
+            } else if (valuesAligned) {
+                relocate = false;
+            } else {
+                // the value may extend into a segment being compacted
+                Long next = compacting.higher(segment);
+                relocate = next != null && segment(p + valueSize(p) - 1) >= next;
+                if (relocate) {
+                    deadValueBytes(segment, valueSize(p));
+                }
+            }
+            if (relocate) {
+                byte[] bytes = new byte[valueSize(p)];
+                values.get(p, bytes, 0, bytes.length);
+                bb.putLong(slot, appendValue(bytes));
+            }
+        }
+    }
+
+    private void deleteCompactedSegments() {
+        compacted.removeIf(values::deleteSegment);
+    }
+
+    @Override
+    public Factory<K, V> readView() {
+        return new FactoryFile<K, V>(this);
+    }
+
+    @Override
+    public void sort(Iterator<Entry<K, V>> entries, int maxEntriesInMemory,
+            Consumer<Iterator<Entry<K, V>>> consumer) {
+        new ExternalSort<K, V>(options.comparator(), keySerializer, valueSerializer, directory, maxEntriesInMemory,
+                maxMappedSegments).sort(entries, consumer);
+    }
+
     @Override
     public Options<K, V> options() {
         return options;
     }
 
+    @Override
+    public CacheStats indexSegmentStats() {
+        return bb.stats();
+    }
+
+    @Override
+    public CacheStats valueSegmentStats() {
+        return values.stats();
+    }
+
+    @Override
+    public CacheStats valueCacheStats() {
+        return valueCache == null ? CacheStats.empty() : valueCache.stats();
+    }
+
 }
@@ -1,5 +1,7 @@
 package com.github.davidmoten.bplustree.internal.file;
 
+import java.util.function.Supplier;
+
 import com.github.davidmoten.bplustree.internal.Leaf;
 import com.github.davidmoten.bplustree.internal.Options;
 
@@ -33,11 +35,25 @@ public class LeafFile<K, V> implements Leaf<K, V>, NodeFile {
         return factory.options();
     }
 
+    @Override
+    public int getLocation(K key, boolean acceptEquals) {
+        if (factory.searchesKeysInPlace()) {
+            return factory.leafLocation(position, key, acceptEquals);
+        } else {
+            return Leaf.super.getLocation(key, acceptEquals);
+        }
+    }
+
     @Override
     public V value(int index) {
         return factory.leafValue(position, index);
     }
 
+    @Override
+    public Supplier<V> lazyValue(int index) {
+        return factory.leafLazyValue(position, index);
+    }
+
     @Override
     public void setNumKeys(int numKeys) {
         factory.leafSetNumKeys(position, numKeys);
@@ -58,6 +74,16 @@ public class LeafFile<K, V> implements Leaf<K, V>, NodeFile {
         factory.leafMove(position, start, length, (LeafFile<K, V>) other);
     }
 
+    @Override
+    public void remove(int start, int length) {
+        factory.leafRemove(position, start, length);
+    }
+
+    @Override
+    public void moveTo(int start, int length, Leaf<K, V> other, int otherIndex) {
+        factory.leafMoveTo(position, start, length, (LeafFile<K, V>) other, otherIndex);
+    }
+
     @Override
     public void setNext(Leaf<K, V> sibling) {
         factory.leafSetNext(position, (LeafFile<K, V>) sibling);
@@ -68,6 +94,16 @@ public class LeafFile<K, V> implements Leaf<K, V>, NodeFile {
         return factory.leafNext(position);
     }
 
+    @Override
+    public void setPrevious(Leaf<K, V> sibling) {
+        factory.leafSetPrevious(position, (LeafFile<K, V>) sibling);
+    }
+
+    @Override
+    public LeafFile<K, V> previous() {
+        return factory.leafPrevious(position);
+    }
+
     @Override
     public long position() {
         return position;
@@ -45,11 +45,30 @@ public final class NonLeafFile<K, V> implements NonLeaf<K, V>, NodeFile {
         return factory.nonLeafChild(position, index);
     }
 
+    @Override
+    public long count(int index) {
+        return factory.nonLeafCount(position, index);
+    }
+
+    @Override
+    public void setCount(int index, long count) {
+        factory.nonLeafSetCount(position, index, count);
+    }
+
     @Override
     public K key(int index) {
         return factory.nonLeafKey(position, index);
     }
 
+    @Override
+    public int getLocation(K key, boolean acceptEquals) {
+        if (factory.searchesKeysInPlace()) {
+            return factory.nonLeafLocation(position, key, acceptEquals);
+        } else {
+            return NonLeaf.super.getLocation(key, acceptEquals);
+        }
+    }
+
     @Override
     public void setKey(int index, K key) {
         factory.nonLeafSetKey(position, index, key);
@@ -0,0 +1,157 @@
+package com.github.davidmoten.bplustree.internal.file;
+
+import com.github.davidmoten.bplustree.internal.Factory;
+import com.github.davidmoten.bplustree.internal.Insertion;
+import com.github.davidmoten.bplustree.internal.Node;
+import com.github.davidmoten.bplustree.internal.NonLeaf;
+import com.github.davidmoten.bplustree.internal.Options;
+import com.github.davidmoten.bplustree.internal.Removal;
+import com.github.davidmoten.bplustree.internal.Split;
+
+/**
+ * A decoded copy on the heap of a NonLeaf in one of the top levels of the
+ * index. Searches through it don't read the index. It is marked stale by the
+ * factory when the node it copies is changed. Changes made through it are
+ * written to the node in the index (marking it stale) and a stale copy reads
+ * the index so it always agrees with the node it copies.
+ */
+final class NonLeafPinned<K, V> implements NonLeaf<K, V> {
+
+    private final FactoryFile<K, V> factory;
+    final long position;
+    final int level;
+    private final Object[] keys;
+    // the keys as primitives if keys are longs or ints in natural order, null
+    // otherwise
+    private final long[] primitiveKeys;
+    final long[] children;
+    // pinned copies of the children, null if the children are not pinned
+    final NonLeafPinned<K, V>[] pinnedChildren;
+    boolean stale;
+
+    NonLeafPinned(FactoryFile<K, V> factory, long position, int level, Object[] keys, long[] primitiveKeys,
+            long[] children, NonLeafPinned<K, V>[] pinnedChildren) {
+        this.factory = factory;
+        this.position = position;
+        this.level = level;
+        this.keys = keys;
+        this.primitiveKeys = primitiveKeys;
+        this.children = children;
+        this.pinnedChildren = pinnedChildren;
+    }
+
+    @Override
+    public Options<K, V> options() {
+        return factory.options();
+    }
+
+    @Override
+    public Factory<K, V> factory() {
+        return factory;
+    }
+
+    /**
+     * Returns the node in the index that this is a copy of.
+     */
+    private NonLeafFile<K, V> file() {
+        return new NonLeafFile<K, V>(factory, position);
+    }
+
+    @Override
+    public int numKeys() {
+        if (stale) {
+            return file().numKeys();
+        }
+        return keys.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public K key(int i) {
+        if (stale) {
+            return file().key(i);
+        }
+        return (K) keys[i];
+    }
+
+    @Override
+    public int getLocation(K key, boolean acceptEquals) {
+        if (stale) {
+            return file().getLocation(key, acceptEquals);
+        } else if (primitiveKeys != null) {
+            long k = ((Number) key).longValue();
+            int lo = 0;
+            int hi = primitiveKeys.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                long x = primitiveKeys[mid];
+                if (k < x || (acceptEquals && k == x)) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            return lo;
+        } else {
+            return NonLeaf.super.getLocation(key, acceptEquals);
+        }
+    }
+
+    @Override
+    public Node<K, V> child(int i) {
+        return factory.nonLeafChild(position, i);
+    }
+
+    @Override
+    public long count(int i) {
+        // counts change with every insert so are read from the index rather
+        // than pinned
+        return factory.nonLeafCount(position, i);
+    }
+
+    @Override
+    public void setCount(int i, long count) {
+        file().setCount(i, count);
+    }
+
+    @Override
+    public void setNumKeys(int numKeys) {
+        file().setNumKeys(numKeys);
+    }
+
+    @Override
+    public void setChild(int i, Node<K, V> node) {
+        file().setChild(i, node);
+    }
+
+    @Override
+    public void setKey(int i, K key) {
+        file().setKey(i, key);
+    }
+
+    @Override
+    public void move(int mid, NonLeaf<K, V> other, int length) {
+        file().move(mid, other, length);
+    }
+
+    @Override
+    public void insert(int i, K key, Node<K, V> left) {
+        file().insert(i, key, left);
+    }
+
+    @Override
+    public void remove(int start, int length) {
+        file().remove(start, length);
+    }
+
+    @Override
+    public Split<K, V> insert(K key, V value, Insertion insertion) {
+        return file().insert(key, value, insertion);
+    }
+
+    @Override
+    public long remove(Removal<K, V> removal) {
+        return file().remove(removal);
+    }
+
+}
@@ -1,8 +1,17 @@
 package com.github.davidmoten.bplustree.internal.memory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.github.davidmoten.bplustree.CacheStats;
+import com.github.davidmoten.bplustree.Entry;
 import com.github.davidmoten.bplustree.internal.Factory;
 import com.github.davidmoten.bplustree.internal.Leaf;
 import com.github.davidmoten.bplustree.internal.Node;
+import com.github.davidmoten.bplustree.internal.NodeCursor;
 import com.github.davidmoten.bplustree.internal.NonLeaf;
 import com.github.davidmoten.bplustree.internal.Options;
 
@@ -10,6 +19,9 @@ public final class FactoryMemory<K, V> implements Factory<K, V> {
 
     private final Options<K, V> options;
 
+    // the latest root, returned by loadOrCreateRoot for read views
+    private Node<K, V> root;
+
     public FactoryMemory(Options<K, V> options) {
         this.options = options;
     }
@@ -34,14 +46,86 @@ public final class FactoryMemory<K, V> implements Factory<K, V> {
         // do nothing
     }
 
+    @Override
+    public void free(Node<K, V> node) {
+        // garbage collected
+    }
+
     @Override
     public void root(Node<K, V> node) {
-        // do nothing
+        this.root = node;
     }
 
     @Override
     public Node<K, V> loadOrCreateRoot() {
-        return createLeaf();
+        if (root == null) {
+            return createLeaf();
+        } else {
+            return root;
+        }
+    }
+
+    @Override
+    public NodeCursor<K, V> cursor() {
+        // memory nodes are the tree so nothing is allocated
+        @SuppressWarnings("unchecked")
+        NodeCursor<K, V> c = (NodeCursor<K, V>) DirectCursor.INSTANCE;
+        return c;
+    }
+
+    private static final class DirectCursor<K, V> implements NodeCursor<K, V> {
+
+        static final DirectCursor<Object, Object> INSTANCE = new DirectCursor<>();
+
+        @Override
+        public Node<K, V> start(Node<K, V> root) {
+            return root;
+        }
+
+        @Override
+        public Node<K, V> child(NonLeaf<K, V> node, int i) {
+            return node.child(i);
+        }
+
+        @Override
+        public Leaf<K, V> next(Leaf<K, V> leaf) {
+            return leaf.next();
+        }
+
+        @Override
+        public Leaf<K, V> previous(Leaf<K, V> leaf) {
+            return leaf.previous();
+        }
+    }
+
+    @Override
+    public Factory<K, V> readView() {
+        // memory nodes have no read state so can be shared by concurrent readers
+        return this;
+    }
+
+    @Override
+    public void sort(Iterator<Entry<K, V>> entries, int maxEntriesInMemory,
+            Consumer<Iterator<Entry<K, V>>> consumer) {
+        // the tree holds every entry in memory anyway so no need to spill runs
+        List<Entry<K, V>> list = new ArrayList<>();
+        while (entries.hasNext()) {
+            list.add(entries.next());
+        }
+        @SuppressWarnings("unchecked")
+        Entry<K, V>[] array = (Entry<K, V>[]) list.toArray(new Entry<?, ?>[list.size()]);
+        Arrays.parallelSort(array, (a, b) -> options.comparator().compare(a.key(), b.key()));
+        consumer.accept(Arrays.asList(array).iterator());
+    }
+
+    @Override
+    public void afterInsert() {
+        // values are garbage collected
+    }
+
+    @Override
+    public boolean compactValues(int maxLeaves) {
+        return true;
     }
 
     @Override
@@ -49,4 +133,19 @@ public final class FactoryMemory<K, V> implements Factory<K, V> {
         return options;
     }
 
+    @Override
+    public CacheStats indexSegmentStats() {
+        return CacheStats.empty();
+    }
+
+    @Override
+    public CacheStats valueSegmentStats() {
+        return CacheStats.empty();
+    }
+
+    @Override
+    public CacheStats valueCacheStats() {
+        return CacheStats.empty();
+    }
+
 }
@@ -14,6 +14,7 @@ public final class LeafMemory<K, V> implements Leaf<K, V> {
     private final V[] values;
     private int numKeys;
     private Leaf<K, V> next;
+    private Leaf<K, V> previous;
 
     @SuppressWarnings("unchecked")
     public LeafMemory(Options<K, V> options, Factory<K, V> factory) {
@@ -46,6 +47,27 @@ public final class LeafMemory<K, V> implements Leaf<K, V> {
         numKeys = start;
     }
 
+    @Override
+    public void remove(int start, int length) {
+        System.arraycopy(keys, start + length, keys, start, numKeys - start - length);
+        System.arraycopy(values, start + length, values, start, numKeys - start - length);
+        // release references for gc
+        Arrays.fill(keys, numKeys - length, numKeys, null);
+        Arrays.fill(values, numKeys - length, numKeys, null);
+        numKeys -= length;
+    }
+
+    @Override
+    public void moveTo(int start, int length, Leaf<K, V> other, int otherIndex) {
+        LeafMemory<K, V> o = (LeafMemory<K, V>) other;
+        System.arraycopy(o.keys, otherIndex, o.keys, otherIndex + length, o.numKeys - otherIndex);
+        System.arraycopy(o.values, otherIndex, o.values, otherIndex + length, o.numKeys - otherIndex);
+        System.arraycopy(keys, start, o.keys, otherIndex, length);
+        System.arraycopy(values, start, o.values, otherIndex, length);
+        o.numKeys += length;
+        remove(start, length);
+    }
+
     @Override
     public void setNumKeys(int numKeys) {
         this.numKeys = numKeys;
@@ -75,6 +97,16 @@ public final class LeafMemory<K, V> implements Leaf<K, V> {
         return next;
     }
 
+    @Override
+    public void setPrevious(Leaf<K, V> previous) {
+        this.previous = previous;
+    }
+
+    @Override
+    public Leaf<K, V> previous() {
+        return previous;
+    }
+
     @Override
     public Options<K, V> options() {
         return options;
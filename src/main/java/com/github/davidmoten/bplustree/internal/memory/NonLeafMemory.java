@@ -12,6 +12,8 @@ public final class NonLeafMemory<K, V> implements NonLeaf<K, V> {
     private final Options<K, V> options;
     private final Factory<K, V> factory;
     private final Node<K, V>[] children;
+    // number of entries under each child
+    private final long[] counts;
     private final K[] keys;
     private int numKeys; // number of keys
 
@@ -20,7 +22,8 @@ public final class NonLeafMemory<K, V> implements NonLeaf<K, V> {
         this.options = options;
         this.factory = factory;
         this.children = new Node[options.maxNonLeafKeys() + 1];
-        this.keys = (K[]) new Object[options.maxLeafKeys()];
+        this.counts = new long[options.maxNonLeafKeys() + 1];
+        this.keys = (K[]) new Object[options.maxNonLeafKeys()];
     }
 
     @Override
@@ -43,6 +46,16 @@ public final class NonLeafMemory<K, V> implements NonLeaf<K, V> {
         return children[index];
     }
 
+    @Override
+    public long count(int index) {
+        return counts[index];
+    }
+
+    @Override
+    public void setCount(int index, long count) {
+        counts[index] = count;
+    }
+
     @Override
     public K key(int index) {
         return keys[index];
@@ -58,6 +71,7 @@ public final class NonLeafMemory<K, V> implements NonLeaf<K, V> {
         other.setNumKeys(length);
         System.arraycopy(this.keys, mid, ((NonLeafMemory<K, V>) other).keys, 0, length);
         System.arraycopy(this.children, mid, ((NonLeafMemory<K, V>) other).children, 0, length + 1);
+        System.arraycopy(this.counts, mid, ((NonLeafMemory<K, V>) other).counts, 0, length + 1);
         numKeys = mid - 1;// this is important, so the middle one elevates to next
         // depth(height), inner node's key don't repeat itself
     }
@@ -66,6 +80,7 @@ public final class NonLeafMemory<K, V> implements NonLeaf<K, V> {
     public void insert(int idx, K key, Node<K, V> node) {
         System.arraycopy(keys, idx, keys, idx + 1, numKeys - idx);
         System.arraycopy(children, idx, children, idx + 1, numKeys - idx + 1);
+        System.arraycopy(counts, idx, counts, idx + 1, numKeys - idx + 1);
         children[idx] = node;
         keys[idx] = key;
         numKeys+=1;
@@ -0,0 +1,164 @@
+package com.github.davidmoten.bplustree.internal.util;
+
+import java.nio.ByteBuffer;
+
+import com.github.davidmoten.bplustree.LargeByteBuffer;
+
+/**
+ * A {@link LargeByteBuffer} of fixed capacity held on the heap. Used to
+ * serialize small objects such as keys without touching the mapped files.
+ */
+public final class HeapLargeByteBuffer implements LargeByteBuffer {
+
+    private final ByteBuffer bb;
+
+    public HeapLargeByteBuffer(int capacity) {
+        this.bb = ByteBuffer.allocate(capacity);
+    }
+
+    public int capacity() {
+        return bb.capacity();
+    }
+
+    @Override
+    public long position() {
+        return bb.position();
+    }
+
+    @Override
+    public void position(long newPosition) {
+        bb.position(Math.toIntExact(newPosition));
+    }
+
+    @Override
+    public byte get() {
+        return bb.get();
+    }
+
+    @Override
+    public void put(byte b) {
+        bb.put(b);
+    }
+
+    @Override
+    public void get(byte[] dst) {
+        bb.get(dst);
+    }
+
+    @Override
+    public void put(byte[] src) {
+        bb.put(src);
+    }
+
+    @Override
+    public int getInt() {
+        return bb.getInt();
+    }
+
+    @Override
+    public void putInt(int value) {
+        bb.putInt(value);
+    }
+
+    @Override
+    public short getShort() {
+        return bb.getShort();
+    }
+
+    @Override
+    public void putShort(short value) {
+        bb.putShort(value);
+    }
+
+    @Override
+    public long getLong() {
+        return bb.getLong();
+    }
+
+    @Override
+    public void putLong(long value) {
+        bb.putLong(value);
+    }
+
+    @Override
+    public double getDouble() {
+        return bb.getDouble();
+    }
+
+    @Override
+    public void putDouble(double value) {
+        bb.putDouble(value);
+    }
+
+    @Override
+    public double getFloat() {
+        return bb.getFloat();
+    }
+
+    @Override
+    public void putFloat(float value) {
+        bb.putFloat(value);
+    }
+
+    @Override
+    public byte get(long position) {
+        return bb.get(Math.toIntExact(position));
+    }
+
+    @Override
+    public void put(long position, byte b) {
+        bb.put(Math.toIntExact(position), b);
+    }
+
+    @Override
+    public void get(long position, byte[] dst, int offset, int length) {
+        int p = Math.toIntExact(position);
+        for (int i = 0; i < length; i++) {
+            dst[offset + i] = bb.get(p + i);
+        }
+    }
+
+    @Override
+    public void put(long position, byte[] src, int offset, int length) {
+        int p = Math.toIntExact(position);
+        for (int i = 0; i < length; i++) {
+            bb.put(p + i, src[offset + i]);
+        }
+    }
+
+    @Override
+    public short getShort(long position) {
+        return bb.getShort(Math.toIntExact(position));
+    }
+
+    @Override
+    public void putShort(long position, short value) {
+        bb.putShort(Math.toIntExact(position), value);
+    }
+
+    @Override
+    public int getInt(long position) {
+        return bb.getInt(Math.toIntExact(position));
+    }
+
+    @Override
+    public void putInt(long position, int value) {
+        bb.putInt(Math.toIntExact(position), value);
+    }
+
+    @Override
+    public long getLong(long position) {
+        return bb.getLong(Math.toIntExact(position));
+    }
+
+    @Override
+    public void putLong(long position, long value) {
+        bb.putLong(Math.toIntExact(position), value);
+    }
+
+    @Override
+    public void commit() {
+        // nothing to persist
+    }
+
+}
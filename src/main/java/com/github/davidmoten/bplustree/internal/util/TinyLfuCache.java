@@ -0,0 +1,358 @@
+package com.github.davidmoten.bplustree.internal.util;
+
+import com.github.davidmoten.bplustree.CacheStats;
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * A cache keyed by long whose size is bounded by the total weight in bytes of
+ * its entries. Eviction follows W-TinyLFU: a new entry goes into a small LRU
+ * window and an entry pushed out of the window only displaces the least
+ * recently used entry of the main cache if it has been requested more often
+ * recently. Request frequencies are estimated by a count-min sketch whose
+ * counts are halved periodically so that they follow changes in the workload.
+ * The main cache is a segmented LRU where an entry requested again while on
+ * probation is promoted to the protected segment. This keeps entries that are
+ * requested repeatedly from being flushed by scans of entries requested once.
+ * Not thread safe.
+ *
+ * @param <V> value type
+ */
+public final class TinyLfuCache<V> {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final long maxBytes;
+    private final long windowMaxBytes;
+    private final long protectedMaxBytes;
+    private final ItemTable<V> items = new ItemTable<V>();
+
+    // sentinels of the circular lists of each queue, least recently used first
+    private final Item<V>[] queues;
+    private final long[] queueBytes = new long[3];
+    private final FrequencySketch sketch;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public TinyLfuCache(long maxBytes) {
+        Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive");
+        this.maxBytes = maxBytes;
+        this.windowMaxBytes = Math.max(1, maxBytes / 100);
+        this.protectedMaxBytes = (maxBytes - windowMaxBytes) * 4 / 5;
+        Item<V>[] q = newItems(3);
+        for (int i = 0; i < q.length; i++) {
+            q[i] = new Item<V>(0, null, 0);
+            q[i].previous = q[i];
+            q[i].next = q[i];
+        }
+        this.queues = q;
+        this.sketch = new FrequencySketch();
+    }
+
+    /**
+     * Returns the value for the given key or null if not cached. Every call
+     * counts as a request of the key for the purposes of admission.
+     *
+     * @param key key
+     * @return cached value or null
+     */
+    public V get(long key) {
+        sketch.increment(key);
+        Item<V> item = items.get(key);
+        if (item == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        if (item.queue == PROBATION) {
+            unlink(item);
+            link(item, PROTECTED);
+            // demote the least recently used protected entries
+            while (queueBytes[PROTECTED] > protectedMaxBytes) {
+                Item<V> demoted = queues[PROTECTED].next;
+                unlink(demoted);
+                link(demoted, PROBATION);
+            }
+        } else if (item.next != queues[item.queue]) {
+            int queue = item.queue;
+            unlink(item);
+            link(item, queue);
+        }
+        return item.value;
+    }
+
+    /**
+     * Adds the value for the given key (typically after {@link #get(long)}
+     * returned null). A value heavier than the whole cache is not added.
+     *
+     * @param key    key
+     * @param value  value
+     * @param weight size of the value in bytes
+     */
+    public void put(long key, V value, int weight) {
+        remove(key);
+        if (weight > maxBytes) {
+            return;
+        }
+        Item<V> item = new Item<V>(key, value, weight);
+        items.put(item);
+        sketch.ensureCapacity(items.size());
+        link(item, WINDOW);
+        while (queueBytes[WINDOW] > windowMaxBytes) {
+            Item<V> candidate = queues[WINDOW].next;
+            unlink(candidate);
+            admit(candidate);
+        }
+    }
+
+    /**
+     * Moves an entry pushed out of the window into the main cache if it is
+     * requested more often than the entries it would displace, otherwise
+     * evicts it.
+     */
+    private void admit(Item<V> candidate) {
+        int frequency = sketch.frequency(candidate.key);
+        while (totalBytes() + candidate.weight > maxBytes) {
+            Item<V> victim = queues[PROBATION].next;
+            if (victim == queues[PROBATION]) {
+                victim = queues[PROTECTED].next;
+            }
+            if (victim == queues[PROTECTED] || frequency <= sketch.frequency(victim.key)) {
+                items.remove(candidate.key);
+                evictions++;
+                return;
+            }
+            unlink(victim);
+            items.remove(victim.key);
+            evictions++;
+        }
+        link(candidate, PROBATION);
+    }
+
+    /**
+     * Removes the entry for the given key if present. Not counted as an
+     * eviction.
+     *
+     * @param key key
+     */
+    public void remove(long key) {
+        Item<V> item = items.remove(key);
+        if (item != null) {
+            unlink(item);
+        }
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public long bytes() {
+        return totalBytes();
+    }
+
+    public CacheStats stats() {
+        return CacheStats.create(hits, misses, evictions);
+    }
+
+    private long totalBytes() {
+        return queueBytes[WINDOW] + queueBytes[PROBATION] + queueBytes[PROTECTED];
+    }
+
+    private void link(Item<V> item, int queue) {
+        Item<V> sentinel = queues[queue];
+        item.queue = queue;
+        item.previous = sentinel.previous;
+        item.next = sentinel;
+        sentinel.previous.next = item;
+        sentinel.previous = item;
+        queueBytes[queue] += item.weight;
+    }
+
+    private void unlink(Item<V> item) {
+        item.previous.next = item.next;
+        item.next.previous = item.previous;
+        item.previous = null;
+        item.next = null;
+        queueBytes[item.queue] -= item.weight;
+    }
+
+    private static final class Item<V> {
+        final long key;
+        final V value;
+        final int weight;
+        int queue;
+        Item<V> previous;
+        Item<V> next;
+
+        Item(long key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Item<V>[] newItems(int n) {
+        return (Item<V>[]) new Item<?>[n];
+    }
+
+    /**
+     * Open addressing hash table of items by key with linear probing. Avoids
+     * boxing keys.
+     */
+    private static final class ItemTable<V> {
+
+        private Item<V>[] slots = newItems(16);
+        private int size;
+
+        private static int index(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        int size() {
+            return size;
+        }
+
+        Item<V> get(long key) {
+            int mask = slots.length - 1;
+            for (int i = index(key, mask);; i = (i + 1) & mask) {
+                Item<V> item = slots[i];
+                if (item == null || item.key == key) {
+                    return item;
+                }
+            }
+        }
+
+        void put(Item<V> item) {
+            if (2 * (size + 1) > slots.length) {
+                Item<V>[] old = slots;
+                slots = newItems(old.length * 2);
+                for (Item<V> x : old) {
+                    if (x != null) {
+                        insert(x);
+                    }
+                }
+            }
+            insert(item);
+            size++;
+        }
+
+        private void insert(Item<V> item) {
+            int mask = slots.length - 1;
+            int i = index(item.key, mask);
+            while (slots[i] != null) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = item;
+        }
+
+        Item<V> remove(long key) {
+            int mask = slots.length - 1;
+            int i = index(key, mask);
+            while (slots[i] != null && slots[i].key != key) {
+                i = (i + 1) & mask;
+            }
+            Item<V> item = slots[i];
+            if (item == null) {
+                return null;
+            }
+            // shift later items of the probe sequence back into the gap
+            int gap = i;
+            for (int j = (gap + 1) & mask; slots[j] != null; j = (j + 1) & mask) {
+                int home = index(slots[j].key, mask);
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    slots[gap] = slots[j];
+                    gap = j;
+                }
+            }
+            slots[gap] = null;
+            size--;
+            return item;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4 bit counters, 16 to a long. The 4 counters of a key
+     * are in different longs of one 64 byte block so that updating them touches
+     * one cache line. The frequency of a key is the smallest of its counters.
+     * There is a long per cached entry (the table grows with the cache) and all
+     * counts are halved after every 10 increments per long so that old requests
+     * are forgotten.
+     */
+    private static final class FrequencySketch {
+
+        private static final int HASHES = 4;
+        private static final int BLOCK_LONGS = 8;
+        private static final int MAX_COUNT = 15;
+        private static final int MAX_TABLE_SIZE = 1 << 26;
+
+        private long[] table = new long[16];
+        private int sampleSize = 10 * table.length;
+        private int increments;
+
+        void ensureCapacity(int entries) {
+            if (entries > table.length && table.length < MAX_TABLE_SIZE) {
+                // counts are lost but it only happens while the cache is filling
+                table = new long[Math.min(MAX_TABLE_SIZE, Integer.highestOneBit(entries - 1) << 1)];
+                sampleSize = 10 * table.length;
+                increments = 0;
+            }
+        }
+
+        private static long hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 31;
+            h *= 0xBF58476D1CE4E5B9L;
+            return h ^ (h >>> 29);
+        }
+
+        private int block(long hash) {
+            return (int) (hash >>> 40) & (table.length - BLOCK_LONGS);
+        }
+
+        // the ith counter is in long 2i or 2i+1 of the block at one of 16
+        // positions, chosen by 5 bits of the hash
+        private static int offset(long hash, int i) {
+            return 2 * i + (int) ((hash >>> (5 * i + 4)) & 1);
+        }
+
+        private static int shift(long hash, int i) {
+            return (int) ((hash >>> (5 * i)) & 15) << 2;
+        }
+
+        void increment(long key) {
+            long h = hash(key);
+            int block = block(h);
+            boolean added = false;
+            for (int i = 0; i < HASHES; i++) {
+                int j = block + offset(h, i);
+                int shift = shift(h, i);
+                if (((table[j] >>> shift) & 0xF) < MAX_COUNT) {
+                    table[j] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++increments == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                }
+                increments /= 2;
+            }
+        }
+
+        int frequency(long key) {
+            long h = hash(key);
+            int block = block(h);
+            int min = MAX_COUNT;
+            for (int i = 0; i < HASHES; i++) {
+                min = Math.min(min, (int) ((table[block + offset(h, i)] >>> shift(h, i)) & 0xF));
+            }
+            return min;
+        }
+    }
+
+}
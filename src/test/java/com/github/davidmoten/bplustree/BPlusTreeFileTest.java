@@ -3,19 +3,32 @@ package com.github.davidmoten.bplustree;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.davidmoten.kool.Stream;
 import org.junit.Test;
 
+import com.github.davidmoten.bplustree.internal.Leaf;
 import com.github.davidmoten.bplustree.internal.file.LeafFile;
 import com.github.davidmoten.guavamini.Lists;
 
@@ -129,6 +142,467 @@ public final class BPlusTreeFileTest {
         }
     }
 
+    @Test
+    public void testInsertManyWithBoundedMappedSegments() throws Exception {
+        try (BPlusTree<Integer, String> tree = BPlusTree.file() //
+                .directory(Testing.newDirectory()) //
+                .clearDirectory() //
+                .deleteOnClose() //
+                .maxKeys(4) //
+                .segmentSizeBytes(1024) //
+                .maxMappedSegments(4) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.utf8()) //
+                .naturalOrder()) {
+            int n = 10000;
+            for (int i = 0; i < n; i++) {
+                tree.insert(i, String.valueOf(i));
+            }
+            for (int i = 0; i < n; i++) {
+                assertEquals(String.valueOf(i), tree.findFirst(i));
+            }
+            assertTrue(tree.indexSegmentStats().evictions() > 0);
+            assertTrue(tree.valueSegmentStats().evictions() > 0);
+        }
+    }
+
+    @Test
+    public void testBulkLoadMapsEachIndexSegmentAboutOnce() throws Exception {
+        File directory = Testing.newDirectory();
+        try (BPlusTree<Integer, Integer> tree = BPlusTree.file() //
+                .directory(directory) //
+                .clearDirectory() //
+                .maxKeys(8) //
+                .segmentSizeBytes(1024) //
+                .maxMappedSegments(8) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder()) {
+            int n = 100000;
+            tree.bulkLoad(IntStream.range(0, n).mapToObj(i -> Entry.create(i, i)).iterator());
+            long indexFiles = Arrays.stream(directory.listFiles()).filter(f -> f.getName().startsWith("index-"))
+                    .count();
+            // one pass over the index while it is written (a second pass to set the
+            // counts would map every segment again)
+            assertTrue(tree.indexSegmentStats().misses() < indexFiles * 1.5);
+            assertEquals(n, tree.count(0, n));
+        }
+    }
+
+    @Test
+    public void testInsertManyWithPreallocatedSegments() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = BPlusTree.file() //
+                .directory(Testing.newDirectory()) //
+                .clearDirectory() //
+                .deleteOnClose() //
+                .maxKeys(4) //
+                .segmentSizeBytes(1024) //
+                .preallocateSegments(3, true) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder()) {
+            int n = 10000;
+            for (int i = 0; i < n; i++) {
+                tree.insert(i, i);
+            }
+            for (int i = 0; i < n; i++) {
+                assertEquals(i, (int) tree.findFirst(i));
+            }
+        }
+    }
+
+    @Test
+    public void testInsertManyWithAlignedNodes() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = BPlusTree.file() //
+                .directory(Testing.newDirectory()) //
+                .clearDirectory() //
+                .deleteOnClose() //
+                .maxKeys(10) //
+                .segmentSizeBytes(1024) //
+                .nodeAlignmentBytes(256) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder()) {
+            int n = 10000;
+            for (int i = n - 1; i >= 0; i--) {
+                tree.insert(i, i);
+            }
+            for (int i = 0; i < n; i++) {
+                assertEquals(i, (int) tree.findFirst(i));
+            }
+            assertEquals(n, toList(tree.findAll()).size());
+        }
+    }
+
+    @Test
+    public void testInsertManyWithPageSizedNodes() throws Exception {
+        try (BPlusTree<Long, Long> tree = BPlusTree.file() //
+                .directory(Testing.newDirectory()) //
+                .clearDirectory() //
+                .deleteOnClose() //
+                .nodeSizeBytes(16384) //
+                .nodeAlignmentBytes(16384) //
+                .segmentSizeMB(1) //
+                .keySerializer(Serializer.LONG) //
+                .valueSerializer(Serializer.LONG) //
+                .naturalOrder()) {
+            // more than 255 keys per node
+            assertEquals(1022, tree.factory().options().maxLeafKeys());
+            int n = 100000;
+            for (long i = n - 1; i >= 0; i--) {
+                tree.insert(i, i);
+            }
+            for (long i = 0; i < n; i++) {
+                assertEquals(i, (long) tree.findFirst(i));
+            }
+            assertEquals(n, toList(tree.findAll()).size());
+        }
+    }
+
+    @Test
+    public void testFixedSizeValuesAreInlinedInLeaves() throws Exception {
+        File directory = Testing.newDirectory();
+        try (BPlusTree<Long, Long> tree = BPlusTree.file() //
+                .directory(directory) //
+                .clearDirectory() //
+                .maxKeys(8) //
+                .segmentSizeBytes(4096) //
+                .keySerializer(Serializer.LONG) //
+                .valueSerializer(Serializer.LONG) //
+                .naturalOrder()) {
+            int n = 10000;
+            for (long i = 0; i < n; i++) {
+                tree.insert(i, -i);
+            }
+            tree.commit();
+            for (long i = 0; i < n; i++) {
+                assertEquals(-i, (long) tree.findFirst(i));
+            }
+        }
+        assertFalse(new File(directory, "value-0").exists());
+    }
+
+    @Test
+    public void testPrimitiveLongKeysSearchSameAsComparator() throws Exception {
+        // the natural order tree compares keys as primitives read from the index
+        try (BPlusTree<Long, Long> primitive = createLongKeys(Comparator.naturalOrder());
+                BPlusTree<Long, Long> generic = createLongKeys((a, b) -> Long.compare(a, b))) {
+            Random r = new Random(1);
+            for (int i = 0; i < 10000; i++) {
+                // negative keys and duplicates
+                long k = r.nextInt(3000) - 1500 + (i % 2 == 0 ? Long.MIN_VALUE / 2 : Long.MAX_VALUE / 2);
+                primitive.insert(k, (long) i);
+                generic.insert(k, (long) i);
+            }
+            for (int i = 0; i < 1000; i++) {
+                long k = r.nextInt(3200) - 1600 + (i % 2 == 0 ? Long.MIN_VALUE / 2 : Long.MAX_VALUE / 2);
+                assertEquals(generic.findFirst(k), primitive.findFirst(k));
+                assertEquals(toList(generic.find(k, k + 100, i % 3 == 0)),
+                        toList(primitive.find(k, k + 100, i % 3 == 0)));
+            }
+            assertEquals(generic.removeRange(Long.MIN_VALUE / 2, 0L), primitive.removeRange(Long.MIN_VALUE / 2, 0L));
+            assertEquals(toList(generic.findAll()), toList(primitive.findAll()));
+        }
+    }
+
+    @Test
+    public void testPinnedLevelsSearchSameAsUnpinned() throws Exception {
+        // both the primitive and the comparator search of pinned nodes
+        try (BPlusTree<Long, Long> pinned = createLongKeys(Comparator.naturalOrder(), 3);
+                BPlusTree<Long, Long> pinnedGeneric = createLongKeys((a, b) -> Long.compare(a, b), 2);
+                BPlusTree<Long, Long> unpinned = createLongKeys(Comparator.naturalOrder())) {
+            Random r = new Random(1);
+            for (int round = 0; round < 10; round++) {
+                // inserts split pinned nodes and removals merge them
+                for (int i = 0; i < 1000; i++) {
+                    long k = r.nextInt(5000);
+                    pinned.insert(k, (long) i);
+                    pinnedGeneric.insert(k, (long) i);
+                    unpinned.insert(k, (long) i);
+                }
+                long start = r.nextInt(5000);
+                long finish = start + r.nextInt(2000);
+                long removed = unpinned.removeRange(start, finish);
+                assertEquals(removed, pinned.removeRange(start, finish));
+                assertEquals(removed, pinnedGeneric.removeRange(start, finish));
+                if (round == 5) {
+                    // collapse the tree to a leaf and grow it again
+                    unpinned.removeRange(0L, 4990L);
+                    pinned.removeRange(0L, 4990L);
+                    pinnedGeneric.removeRange(0L, 4990L);
+                }
+                for (int i = 0; i < 200; i++) {
+                    long k = r.nextInt(5100);
+                    assertEquals(unpinned.findFirst(k), pinned.findFirst(k));
+                    assertEquals(unpinned.findFirst(k), pinnedGeneric.findFirst(k));
+                    assertEquals(toList(unpinned.find(k, k + 50)), toList(pinned.find(k, k + 50)));
+                    assertEquals(toList(unpinned.findDescending(k, k + 50)),
+                            toList(pinnedGeneric.findDescending(k, k + 50)));
+                }
+            }
+            assertEquals(toList(unpinned.findAll()), toList(pinned.findAll()));
+            assertEquals(toList(unpinned.findLast(100)), toList(pinnedGeneric.findLast(100)));
+        }
+    }
+
+    @Test
+    public void testCountsWithUniqueKeysPinnedLevelsAndReopen() throws Exception {
+        File dir = Testing.newDirectory();
+        TreeMap<Long, Long> map = new TreeMap<>();
+        Random r = new Random(2);
+        BPlusTree<Long, Long> tree = createUniqueLongKeys(dir, true);
+        for (int round = 0; round < 5; round++) {
+            // replacing the value of an existing key doesn't change the counts
+            for (int i = 0; i < 1000; i++) {
+                long k = r.nextInt(3000);
+                tree.insert(k, (long) i);
+                map.put(k, (long) i);
+            }
+            long start = r.nextInt(3000);
+            long finish = start + r.nextInt(500);
+            tree.removeRange(start, finish);
+            map.subMap(start, finish).clear();
+            List<Long> keys = new ArrayList<>(map.keySet());
+            for (int i = 0; i < 100; i++) {
+                long k = r.nextInt(3100);
+                assertEquals(map.headMap(k).size(), tree.rank(k));
+                assertEquals(map.headMap(k, true).size(), tree.rank(k, true));
+                assertEquals(map.subMap(k, k + 300).size(), tree.count(k, k + 300));
+                int index = r.nextInt(keys.size());
+                assertEquals(keys.get(index), tree.select(index).key());
+                assertEquals(map.get(keys.get(index)), tree.select(index).value());
+            }
+        }
+        tree.commit();
+        tree.close();
+        tree = createUniqueLongKeys(dir, false);
+        assertEquals(map.size(), tree.count(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(map.lastKey(), tree.select(map.size() - 1).key());
+        tree.close();
+    }
+
+    private static BPlusTree<Long, Long> createUniqueLongKeys(File dir, boolean clear) {
+        BPlusTree.BuilderFile2 b = BPlusTree.file() //
+                .directory(dir) //
+                .maxKeys(8) //
+                .segmentSizeBytes(4096) //
+                .pinnedLevels(2) //
+                .uniqueKeys(true);
+        if (clear) {
+            b = b.clearDirectory();
+        }
+        return b.keySerializer(Serializer.LONG) //
+                .valueSerializer(Serializer.LONG) //
+                .naturalOrder();
+    }
+
+    @Test
+    public void testOrderPreservingKeysSearchSameAsDeserialized() throws Exception {
+        // 12 byte keys so that comparison covers a whole long and a partial one
+        try (BPlusTree<String, Integer> inPlace = createAsciiKeys(asciiFixed(12, true));
+                BPlusTree<String, Integer> deserialized = createAsciiKeys(asciiFixed(12, false))) {
+            Random r = new Random(1);
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                String k = randomAscii(r);
+                keys.add(k);
+                inPlace.insert(k, i);
+                deserialized.insert(k, i);
+            }
+            for (int i = 0; i < 1000; i++) {
+                String k = i % 2 == 0 ? keys.get(r.nextInt(keys.size())) : randomAscii(r);
+                assertEquals(deserialized.findFirst(k), inPlace.findFirst(k));
+                assertEquals(toList(deserialized.find(k, k + "~")), toList(inPlace.find(k, k + "~")));
+            }
+            assertEquals(deserialized.removeRange("m", "t"), inPlace.removeRange("m", "t"));
+            assertEquals(toList(deserialized.findAll()), toList(inPlace.findAll()));
+        }
+    }
+
+    private static String randomAscii(Random r) {
+        // short keys are zero padded so sort before longer keys with the same prefix
+        char[] chars = new char[1 + r.nextInt(11)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + r.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    private static BPlusTree<String, Integer> createAsciiKeys(Serializer<String> keySerializer) {
+        return BPlusTree.file() //
+                .directory(Testing.newDirectory()) //
+                .clearDirectory() //
+                .deleteOnClose() //
+                .maxKeys(8) //
+                .segmentSizeBytes(4096) //
+                .keySerializer(keySerializer) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder();
+    }
+
+    private static Serializer<String> asciiFixed(int size, boolean orderPreserving) {
+        return new Serializer<String>() {
+
+            @Override
+            public String read(LargeByteBuffer bb) {
+                byte[] bytes = new byte[size];
+                bb.get(bytes);
+                int length = 0;
+                while (length < size && bytes[length] != 0) {
+                    length++;
+                }
+                return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+            }
+
+            @Override
+            public void write(LargeByteBuffer bb, String s) {
+                bb.put(Arrays.copyOf(s.getBytes(StandardCharsets.US_ASCII), size));
+            }
+
+            @Override
+            public int maxSize() {
+                return size;
+            }
+
+            @Override
+            public boolean isFixedSize() {
+                return true;
+            }
+
+            @Override
+            public boolean isOrderPreserving() {
+                return orderPreserving;
+            }
+        };
+    }
+
+    private static BPlusTree<Long, Long> createLongKeys(Comparator<Long> comparator) {
+        return createLongKeys(comparator, 0);
+    }
+
+    private static BPlusTree<Long, Long> createLongKeys(Comparator<Long> comparator, int pinnedLevels) {
+        return BPlusTree.file() //
+                .directory(Testing.newDirectory()) //
+                .clearDirectory() //
+                .deleteOnClose() //
+                .maxKeys(8) //
+                .segmentSizeBytes(4096) //
+                .pinnedLevels(pinnedLevels) //
+                .keySerializer(Serializer.LONG) //
+                .valueSerializer(Serializer.LONG) //
+                .comparator(comparator);
+    }
+
+    @Test
+    public void testBulkImportRemovesSortedRuns() throws Exception {
+        File directory = Testing.newDirectory();
+        try (BPlusTree<Integer, String> tree = BPlusTree.file() //
+                .directory(directory) //
+                .clearDirectory() //
+                .maxKeys(8) //
+                .segmentSizeBytes(4096) //
+                .maxMappedSegments(2) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.utf8()) //
+                .naturalOrder()) {
+            int n = 10000;
+            List<Integer> keys = IntStream.range(0, n).boxed().collect(Collectors.toList());
+            Collections.shuffle(keys, new Random(1));
+            tree.bulkImport(keys.stream().map(x -> Entry.create(x, "v" + x)).iterator(), 1000);
+            for (int i = 0; i < n; i++) {
+                assertEquals("v" + i, tree.findFirst(i));
+            }
+            assertEquals(n, toList(tree.findAll()).size());
+        }
+        assertFalse(Arrays.stream(directory.listFiles()).anyMatch(f -> f.getName().startsWith("sort-")));
+    }
+
+    @Test
+    public void testAppendOptimizedSplitsFillLeavesWithAscendingKeys() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = BPlusTree.file() //
+                .directory(Testing.newDirectory()) //
+                .clearDirectory() //
+                .deleteOnClose() //
+                .maxKeys(4) //
+                .appendOptimizedSplits() //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder()) {
+            int n = 1000;
+            for (int i = 0; i < n; i++) {
+                tree.insert(i, i);
+            }
+            // every leaf is full
+            int numLeaves = 0;
+            Leaf<Integer, Integer> leaf = tree.firstLeaf(tree.root());
+            while (leaf != null) {
+                assertEquals(4, leaf.numKeys());
+                numLeaves++;
+                leaf = leaf.next();
+            }
+            assertEquals(n / 4, numLeaves);
+            assertEquals(IntStream.range(0, n).boxed().collect(Collectors.toList()), toList(tree.findAll()));
+            // out of order inserts still work
+            tree.insert(-1, -1);
+            tree.insert(500, 500);
+            assertEquals(n + 2, toList(tree.findAll()).size());
+            assertEquals(Arrays.asList(499, 500, 500, 501), toList(tree.find(499, 502)));
+        }
+    }
+
+    @Test
+    public void testConcurrentReadViews() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = BPlusTree.file() //
+                .directory(Testing.newDirectory()) //
+                .clearDirectory() //
+                .deleteOnClose() //
+                .maxKeys(8) //
+                .segmentSizeBytes(4096) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder()) {
+            int n = 10000;
+            for (int i = 0; i < n; i++) {
+                tree.insert(i, i);
+            }
+            int numThreads = 8;
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < numThreads; t++) {
+                    int offset = t;
+                    futures.add(executor.submit(() -> {
+                        try (BPlusTree<Integer, Integer> view = tree.readView()) {
+                            for (int i = 0; i < n; i++) {
+                                int k = (i * 31 + offset * 997) % n;
+                                assertEquals(k, (int) view.findFirst(k));
+                            }
+                            assertEquals(Arrays.asList(100, 101, 102), toList(view.find(100, 103)));
+                            assertEquals(n, toList(view.findAll()).size());
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+            // the tree can be written to again once the views are closed
+            tree.insert(n, n);
+            assertEquals(n, (int) tree.findFirst(n));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadViewIsReadOnly() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = create(4); //
+                BPlusTree<Integer, Integer> view = tree.readView()) {
+            view.insert(1, 1);
+        }
+    }
+
     @Test
     public void testRegexSpeed() {
         String s = "2019-11-06 23:13:00.427 DEBUG com.zaxxer.hikari.pool.HikariPool [HikariPool-2 housekeeper] - HikariPool-2 - Before cleanup stats (total=5, active=3, idle=2, waiting=0)";
@@ -203,6 +677,33 @@ public final class BPlusTreeFileTest {
     }
     
     
+    @Test
+    public void testInterleavedScansAndLookups() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = create(4)) {
+            for (int i = 0; i < 1000; i++) {
+                tree.insert(i, i);
+            }
+            // more scans than the leaf pool used to hold, each on a different leaf
+            List<Iterator<Integer>> ascending = new ArrayList<>();
+            List<Iterator<Integer>> descending = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                ascending.add(tree.find(i * 50, i * 50 + 50).iterator());
+                descending.add(tree.findDescending(i * 50, i * 50 + 50).iterator());
+            }
+            for (int j = 0; j < 50; j++) {
+                for (int i = 0; i < 20; i++) {
+                    assertEquals(i * 50 + j, (int) ascending.get(i).next());
+                    assertEquals(i * 50 + 49 - j, (int) descending.get(i).next());
+                    assertEquals(999 - i * 50 - j, (int) tree.findFirst(999 - i * 50 - j));
+                }
+            }
+            for (int i = 0; i < 20; i++) {
+                assertFalse(ascending.get(i).hasNext());
+                assertFalse(descending.get(i).hasNext());
+            }
+        }
+    }
+
     @Test
     public void testCreateAndReopen() throws Exception {
         File dir = Testing.newDirectory();
@@ -267,6 +768,332 @@ public final class BPlusTreeFileTest {
         tree.close();
     }
     
+    @Test
+    public void testRemovedNodesAreReusedAfterReopen() throws Exception {
+        File dir = Testing.newDirectory();
+        int n = 1000;
+        BPlusTree<Integer, Integer> tree = BPlusTree.file() //
+                .directory(dir) //
+                .clearDirectory() //
+                .maxKeys(4) //
+                .segmentSizeBytes(4096) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder();
+        for (int i = 0; i < n; i++) {
+            tree.insert(i, i);
+        }
+        long indexFiles = numIndexFiles(dir);
+        assertTrue(indexFiles > 1);
+        assertEquals(n - 100, tree.removeRange(50, n - 50));
+        assertEquals(100, tree.removeRange(0, n));
+        assertTrue(toList(tree.findAll()).isEmpty());
+        tree.commit();
+        tree.close();
+        tree = BPlusTree.file() //
+                .directory(dir) //
+                .maxKeys(4) //
+                .segmentSizeBytes(4096) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder();
+        for (int i = 0; i < n; i++) {
+            tree.insert(i, i);
+        }
+        assertEquals(IntStream.range(0, n).boxed().collect(Collectors.toList()), toList(tree.findAll()));
+        assertEquals(indexFiles, numIndexFiles(dir));
+        // new nodes are written after the existing ones
+        for (int i = n; i < 2 * n; i++) {
+            tree.insert(i, i);
+        }
+        assertEquals(IntStream.range(0, 2 * n).boxed().collect(Collectors.toList()), toList(tree.findAll()));
+        tree.close();
+    }
+
+    @Test
+    public void testCompactValuesDeletesMostlyDeadSegments() throws Exception {
+        File dir = Testing.newDirectory();
+        int n = 100;
+        BPlusTree<Integer, String> tree = createStringValues(dir, true, 0);
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < n; i++) {
+                tree.insert(i, "value-" + round + "-" + i);
+            }
+        }
+        long valueFiles = numValueFiles(dir);
+        assertTrue(valueFiles > 10);
+        tree.compactValues();
+        assertTrue(numValueFiles(dir) < valueFiles / 2);
+        checkStringValues(tree, n, 49);
+        tree.close();
+        tree = createStringValues(dir, false, 0);
+        checkStringValues(tree, n, 49);
+        tree.close();
+    }
+
+    @Test
+    public void testDeadValueBytesSurviveReopening() throws Exception {
+        File dir = Testing.newDirectory();
+        int n = 100;
+        BPlusTree<Integer, String> tree = createStringValues(dir, true, 0);
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < n; i++) {
+                tree.insert(i, "value-" + round + "-" + i);
+            }
+        }
+        tree.commit();
+        tree.close();
+        long valueFiles = numValueFiles(dir);
+        tree = createStringValues(dir, false, 0);
+        tree.compactValues();
+        assertTrue(numValueFiles(dir) < valueFiles / 2);
+        checkStringValues(tree, n, 49);
+        tree.close();
+    }
+
+    @Test
+    public void testValueCompactionOnInsert() throws Exception {
+        File dir = Testing.newDirectory();
+        int n = 100;
+        BPlusTree<Integer, String> tree = createStringValues(dir, true, 4);
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < n; i++) {
+                tree.insert(i, "value-" + round + "-" + i);
+            }
+            // compacted segment files are deleted once the relocated values are
+            // committed
+            tree.commit();
+        }
+        // without compaction there would be more than 30 value files
+        assertTrue(numValueFiles(dir) < 15);
+        checkStringValues(tree, n, 99);
+        tree.close();
+    }
+
+    @Test
+    public void testCompactValuesWaitsForReadViewsToClose() throws Exception {
+        File dir = Testing.newDirectory();
+        int n = 100;
+        BPlusTree<Integer, String> tree = createStringValues(dir, true, 0);
+        for (int round = 0; round < 30; round++) {
+            for (int i = 0; i < n; i++) {
+                tree.insert(i, "value-" + round + "-" + i);
+            }
+        }
+        assertEquals(n / 2, tree.removeRange(0, n / 2));
+        long valueFiles = numValueFiles(dir);
+        BPlusTree<Integer, String> view = tree.readView();
+        tree.compactValues();
+        assertEquals(valueFiles, numValueFiles(dir));
+        view.close();
+        tree.compactValues();
+        assertTrue(numValueFiles(dir) < valueFiles / 2);
+        tree.close();
+    }
+
+    @Test
+    public void testCompactValuesKeepsValuesBiggerThanASegment() throws Exception {
+        File dir = Testing.newDirectory();
+        int n = 20;
+        char[] chars = new char[5000];
+        Arrays.fill(chars, 'a');
+        String big = new String(chars);
+        BPlusTree<Integer, String> tree = createStringValues(dir, true, 0);
+        // straddles into a segment that will be mostly dead
+        tree.insert(0, big);
+        for (int round = 0; round < 200; round++) {
+            for (int i = 1; i < n; i++) {
+                tree.insert(i, "value-" + round + "-" + i);
+            }
+        }
+        long valueFiles = numValueFiles(dir);
+        tree.compactValues();
+        assertTrue(numValueFiles(dir) < valueFiles);
+        assertEquals(Collections.singletonList(big), toList(tree.find(0)));
+        for (int i = 1; i < n; i++) {
+            assertEquals(Collections.singletonList("value-199-" + i), toList(tree.find(i)));
+        }
+        tree.close();
+    }
+
+    @Test
+    public void testValueCacheReturnsLatestValues() throws Exception {
+        try (BPlusTree<Integer, String> tree = createCachedStringValues(100000)) {
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 100; i++) {
+                    tree.insert(i, "value-" + round + "-" + i);
+                }
+                // read twice so that the second read is served by the cache
+                checkStringValues(tree, 100, round);
+                checkStringValues(tree, 100, round);
+            }
+            CacheStats stats = tree.valueCacheStats();
+            assertEquals(300, stats.misses());
+            assertEquals(300, stats.hits());
+            assertEquals(0, stats.evictions());
+        }
+    }
+
+    @Test
+    public void testValueCacheKeepsFrequentlyReadValuesThroughScans() throws Exception {
+        // room for about 100 of the 5000 values
+        try (BPlusTree<Integer, String> tree = createCachedStringValues(1500)) {
+            for (int i = 0; i < 5000; i++) {
+                tree.insert(i, "value-" + i);
+            }
+            for (int j = 0; j < 5; j++) {
+                for (int i = 0; i < 20; i++) {
+                    // frequently read values among values read once
+                    tree.findFirst(i * 100);
+                    tree.findFirst(3000 + j * 20 + i);
+                }
+            }
+            for (int j = 0; j < 2; j++) {
+                // values read once
+                assertEquals(5000, toList(tree.findAll()).size());
+            }
+            long hits = tree.valueCacheStats().hits();
+            for (int i = 0; i < 20; i++) {
+                assertEquals("value-" + i * 100, tree.findFirst(i * 100));
+            }
+            assertEquals(20, tree.valueCacheStats().hits() - hits);
+            assertTrue(tree.valueCacheStats().evictions() > 0);
+        }
+    }
+
+    @Test
+    public void testValueCacheAdmitsFrequentlyReadValues() throws Exception {
+        // room for about 100 values
+        try (BPlusTree<Integer, String> tree = createCachedStringValues(1500)) {
+            for (int i = 0; i < 13000; i++) {
+                tree.insert(i, "value-" + i);
+            }
+            int cold = 100;
+            long hits = 0;
+            for (int round = 0; round < 30; round++) {
+                if (round == 20) {
+                    hits = tree.valueCacheStats().hits();
+                }
+                for (int i = 0; i < 20; i++) {
+                    tree.findFirst(i);
+                    // an LRU cache would evict the value before it is read again
+                    for (int j = 0; j < 20; j++) {
+                        tree.findFirst(cold++);
+                    }
+                }
+            }
+            // every frequently read value is a hit by now
+            assertEquals(200, tree.valueCacheStats().hits() - hits);
+        }
+    }
+
+    @Test
+    public void testKeyOnlyScansDontReadValues() throws Exception {
+        try (BPlusTree<Integer, String> tree = createCachedStringValues(0)) {
+            for (int i = 0; i < 1000; i++) {
+                tree.insert(i, "value-" + i);
+            }
+            long reads = valueReads(tree);
+            assertEquals(500, tree.count(100, 600));
+            assertEquals(500, toList(tree.findKeys(100, 600)).size());
+            List<LazyEntry<Integer, String>> entries = toList(tree.findLazyEntries(100, 600));
+            assertEquals(500, entries.size());
+            assertEquals(reads, valueReads(tree));
+            for (LazyEntry<Integer, String> entry : entries) {
+                if (entry.key() % 100 == 0) {
+                    assertEquals("value-" + entry.key(), entry.value());
+                }
+            }
+            assertTrue(valueReads(tree) > reads);
+        }
+    }
+
+    private static long valueReads(BPlusTree<?, ?> tree) {
+        CacheStats stats = tree.valueSegmentStats();
+        return stats.hits() + stats.misses();
+    }
+
+    private static BPlusTree<Integer, String> createCachedStringValues(long valueCacheBytes) {
+        return BPlusTree.file() //
+                .directory(Testing.newDirectory()) //
+                .clearDirectory() //
+                .deleteOnClose() //
+                .maxKeys(8) //
+                .segmentSizeBytes(4096) //
+                .uniqueKeys() //
+                .valueCacheBytes(valueCacheBytes) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.utf8()) //
+                .naturalOrder();
+    }
+
+    @Test
+    public void testRemoveRangeDoesNotReadValuesWithoutValueCompaction() throws Exception {
+        AtomicInteger reads = new AtomicInteger();
+        Serializer<String> utf8 = Serializer.utf8();
+        Serializer<String> counting = new Serializer<String>() {
+
+            @Override
+            public String read(LargeByteBuffer bb) {
+                reads.incrementAndGet();
+                return utf8.read(bb);
+            }
+
+            @Override
+            public void write(LargeByteBuffer bb, String t) {
+                utf8.write(bb, t);
+            }
+
+            @Override
+            public int maxSize() {
+                return utf8.maxSize();
+            }
+        };
+        BPlusTree<Integer, String> tree = BPlusTree.file() //
+                .directory(Testing.newDirectory()) //
+                .maxKeys(8) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(counting) //
+                .naturalOrder();
+        int n = 1000;
+        for (int i = 0; i < n; i++) {
+            tree.insert(i, "value-" + i);
+        }
+        assertEquals(n - 2, tree.removeRange(1, n - 1));
+        assertEquals(0, reads.get());
+        assertEquals(Arrays.asList("value-0", "value-" + (n - 1)), toList(tree.findAll()));
+        tree.close();
+    }
+
+    private static BPlusTree<Integer, String> createStringValues(File dir, boolean clear, int leavesPerInsert) {
+        BPlusTree.BuilderFile2 b = BPlusTree.file() //
+                .directory(dir) //
+                .maxKeys(8) //
+                .segmentSizeBytes(4096) //
+                .uniqueKeys() //
+                .valueCompaction(0.5, leavesPerInsert);
+        if (clear) {
+            b = b.clearDirectory();
+        }
+        return b.keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.utf8()) //
+                .naturalOrder();
+    }
+
+    private static void checkStringValues(BPlusTree<Integer, String> tree, int n, int round) {
+        for (int i = 0; i < n; i++) {
+            assertEquals(Collections.singletonList("value-" + round + "-" + i), toList(tree.find(i)));
+        }
+    }
+
+    private static long numValueFiles(File dir) {
+        return Arrays.stream(dir.listFiles()).filter(f -> f.getName().startsWith("value-")).count();
+    }
+
+    private static long numIndexFiles(File dir) {
+        return Arrays.stream(dir.listFiles()).filter(f -> f.getName().startsWith("index-")).count();
+    }
+
     private static <T> List<T> toList(Iterable<T> iterable) {
         Iterator<T> it = iterable.iterator();
         List<T> list = new ArrayList<>();
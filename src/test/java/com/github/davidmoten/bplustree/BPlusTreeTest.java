@@ -11,6 +11,9 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -21,6 +24,9 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 
+import com.github.davidmoten.bplustree.internal.Leaf;
+import com.github.davidmoten.bplustree.internal.Node;
+import com.github.davidmoten.bplustree.internal.NonLeaf;
 import com.github.davidmoten.guavamini.Lists;
 
 @RunWith(Parameterized.class)
@@ -303,6 +309,191 @@ public class BPlusTreeTest {
         }
     }
 
+    @Test
+    public void testFindDescending() throws Exception {
+        try (BPlusTree<Integer, Integer> t = create(2)) {
+            for (int i = 1; i <= 10; i++) {
+                t.insert(i, i);
+            }
+            assertEquals(Arrays.asList(1), toList(t.findDescending(1, 2)));
+            assertEquals(Arrays.asList(2, 1), toList(t.findDescending(1, 3)));
+            assertEquals(Arrays.asList(10, 9), toList(t.findDescending(9, 11)));
+            assertEquals(Arrays.asList(10, 9), toList(t.findDescending(9, 10, true)));
+            assertEquals(Arrays.asList(), toList(t.findDescending(11, 20)));
+            assertEquals(Arrays.asList(), toList(t.findDescending(-3, -1)));
+            assertEquals(Arrays.asList(5, 4),
+                    toList(t.findEntriesDescending(4, 6)).stream().map(Entry::key).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testFindDescendingRandom() throws Exception {
+        Random r = new Random(123);
+        try (BPlusTree<Integer, Integer> t = create(3)) {
+            List<Integer> keys = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                int k = r.nextInt(300);
+                t.insert(k, i);
+                keys.add(k);
+            }
+            checkStructure(t);
+            keys.sort(Collections.reverseOrder());
+            for (int i = 0; i < 100; i++) {
+                int start = r.nextInt(320) - 10;
+                int finish = start + r.nextInt(100);
+                boolean inclusive = i % 2 == 0;
+                List<Integer> expected = keys.stream() //
+                        .filter(k -> k >= start && (k < finish || inclusive && k == finish)) //
+                        .collect(Collectors.toList());
+                assertEquals(expected, toList(t.findDescending(start, finish, inclusive, (k, v) -> k)));
+            }
+        }
+    }
+
+    @Test
+    public void testFindLast() throws Exception {
+        try (BPlusTree<Integer, Integer> t = create(3)) {
+            assertEquals(Arrays.asList(), toList(t.findLast(3)));
+            for (int i = 1; i <= 100; i++) {
+                t.insert(i, i);
+            }
+            assertEquals(Arrays.asList(100, 99, 98), toList(t.findLast(3)));
+            assertEquals(Arrays.asList(), toList(t.findLast(0)));
+            assertEquals(100, toList(t.findLast(1000)).size());
+            assertEquals(50, t.removeRange(50, 100));
+            assertEquals(Arrays.asList(100, 49, 48), toList(t.findLast(3)));
+        }
+    }
+
+    @Test
+    public void testFindKeysCountAndLazyEntries() throws Exception {
+        Random r = new Random(123);
+        try (BPlusTree<Integer, Integer> t = create(3)) {
+            List<Integer> all = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                int k = r.nextInt(300);
+                t.insert(k, i);
+                all.add(k);
+            }
+            // leaves some leaves empty
+            long removed = t.removeRange(100, 120);
+            all.removeIf(k -> k >= 100 && k < 120);
+            for (int i = 0; i < 100; i++) {
+                int start = r.nextInt(320) - 10;
+                int finish = start + r.nextInt(100);
+                boolean inclusive = i % 2 == 0;
+                List<Entry<Integer, Integer>> entries = toList(t.findEntries(start, finish, inclusive));
+                List<Integer> keys = entries.stream().map(Entry::key).collect(Collectors.toList());
+                assertEquals(keys, toList(t.findKeys(start, finish, inclusive)));
+                assertEquals(all.stream().filter(k -> k >= start && (k < finish || inclusive && k == finish)).count(),
+                        t.count(start, finish, inclusive));
+                List<LazyEntry<Integer, Integer>> lazy = toList(t.findLazyEntries(start, finish, inclusive));
+                assertEquals(keys, lazy.stream().map(LazyEntry::key).collect(Collectors.toList()));
+                // values are read after the scan has moved on
+                assertEquals(entries.stream().map(Entry::value).collect(Collectors.toList()),
+                        lazy.stream().map(LazyEntry::value).collect(Collectors.toList()));
+            }
+            assertEquals(0, t.count(50, 40));
+            assertEquals(1000 - removed, t.count(-1, 300));
+        }
+    }
+
+    @Test
+    public void testRankSelectCountAndOffsetScans() throws Exception {
+        Random r = new Random(456);
+        try (BPlusTree<Integer, Integer> t = create(3)) {
+            List<Integer> all = new ArrayList<>();
+            for (int round = 0; round < 4; round++) {
+                for (int i = 0; i < 300; i++) {
+                    int k = r.nextInt(200);
+                    t.insert(k, i);
+                    all.add(k);
+                }
+                // appends go straight to the rightmost leaf
+                for (int i = 0; i < 50; i++) {
+                    int k = 200 + round * 50 + i;
+                    t.insert(k, i);
+                    all.add(k);
+                }
+                checkStructure(t);
+                List<Entry<Integer, Integer>> batch = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    batch.add(Entry.create(r.nextInt(400), i));
+                }
+                t.insertAll(batch);
+                batch.forEach(e -> all.add(e.key()));
+                int a = r.nextInt(400);
+                int b = a + r.nextInt(40);
+                t.removeRange(a, b);
+                all.removeIf(k -> k >= a && k < b);
+                for (int i = 0; i < 20; i++) {
+                    int k = r.nextInt(400);
+                    if (t.remove(k) > 0) {
+                        all.removeIf(x -> x == k);
+                    }
+                }
+                checkStructure(t);
+                Collections.sort(all);
+                for (int i = 0; i < 50; i++) {
+                    int k = r.nextInt(420) - 10;
+                    assertEquals(all.stream().filter(x -> x < k).count(), t.rank(k));
+                    assertEquals(all.stream().filter(x -> x <= k).count(), t.rank(k, true));
+                }
+                for (int i = 0; i < all.size(); i += 7) {
+                    assertEquals(all.get(i), t.select(i).key());
+                }
+                assertNull(t.select(all.size()));
+                for (int i = 0; i < 50; i++) {
+                    int start = r.nextInt(420) - 10;
+                    int finish = start + r.nextInt(100);
+                    List<Integer> inRange = all.stream().filter(x -> x >= start && x < finish)
+                            .collect(Collectors.toList());
+                    assertEquals(inRange.size(), t.count(start, finish));
+                    int offset = r.nextInt(inRange.size() + 2);
+                    int limit = r.nextInt(20);
+                    List<Integer> expected = inRange.subList(Math.min(offset, inRange.size()),
+                            Math.min(offset + limit, inRange.size()));
+                    assertEquals(expected, toList(t.findEntries(start, finish, false, offset, limit)).stream()
+                            .map(Entry::key).collect(Collectors.toList()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPagesOfDuplicateKeysDontOverlap() throws Exception {
+        try (BPlusTree<Integer, Integer> t = create(3)) {
+            t.insert(5, 1);
+            t.insert(5, 2);
+            t.insert(5, 3);
+            t.insert(6, 4);
+            assertEquals(4, t.count(5, 7));
+            List<Integer> all = toList(t.find(5, 7));
+            assertEquals(4, all.size());
+            List<Integer> pages = new ArrayList<>();
+            pages.addAll(toList(t.find(5, 7, false, 0, 2)));
+            pages.addAll(toList(t.find(5, 7, false, 2, 2)));
+            assertEquals(all, pages);
+        }
+        Random r = new Random(789);
+        try (BPlusTree<Integer, Integer> t = create(3)) {
+            for (int i = 0; i < 1000; i++) {
+                t.insert(r.nextInt(20), i);
+            }
+            for (int start = -1; start <= 20; start++) {
+                for (int finish = start; finish <= 21; finish += 3) {
+                    List<Integer> all = toList(t.find(start, finish));
+                    assertEquals(all.size(), t.count(start, finish));
+                    List<Integer> pages = new ArrayList<>();
+                    for (int offset = 0; offset < all.size() + 7; offset += 7) {
+                        pages.addAll(toList(t.find(start, finish, false, offset, 7)));
+                    }
+                    assertEquals(all, pages);
+                }
+            }
+        }
+    }
+
     private static <T> List<T> toList(Iterable<T> iterable) {
         List<T> list = new ArrayList<>();
         iterable.forEach(list::add);
@@ -525,4 +716,339 @@ public class BPlusTreeTest {
             assertFalse(it.hasNext());
         }
     }
+
+    @Test
+    public void testAscendingInsertsMixedWithOutOfOrderInserts() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = create(3)) {
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < 300; i += 2) {
+                tree.insert(i, i);
+                expected.add(i);
+            }
+            for (int i = 1; i < 300; i += 6) {
+                tree.insert(i, i);
+                expected.add(i);
+            }
+            // duplicates of the largest key
+            tree.insert(298, 298);
+            expected.add(298);
+            for (int i = 300; i < 400; i++) {
+                tree.insert(i, i);
+                expected.add(i);
+            }
+            Collections.sort(expected);
+            assertEquals(expected, toList(tree.findAll()));
+            assertEquals(Arrays.asList(295, 296, 298, 298, 300), toList(tree.find(295, 301)));
+        }
+    }
+
+    @Test
+    public void testBulkLoad() throws Exception {
+        for (double fillFactor : new double[] { 1.0, 0.7, 0.01 }) {
+            for (int n : new int[] { 0, 1, 3, 4, 5, 17, 1000 }) {
+                try (BPlusTree<Integer, Integer> tree = create(3)) {
+                    List<Integer> list = IntStream.range(0, n).boxed().collect(Collectors.toList());
+                    tree.bulkLoad(list.stream().map(x -> Entry.create(x, x * 10)).iterator(), fillFactor);
+                    checkStructure(tree);
+                    assertEquals(list.stream().map(x -> x * 10).collect(Collectors.toList()),
+                            toList(tree.findAll()));
+                    for (int i = 0; i < n; i++) {
+                        assertEquals(i * 10, (int) tree.findFirst(i));
+                    }
+                    assertEquals(Math.min(n, 10) - Math.min(n, 5),
+                            toList(tree.find(5, 10)).size());
+                    // can insert afterwards
+                    tree.insert(-1, -10);
+                    tree.insert(n / 2, -1);
+                    tree.insert(n, n * 10);
+                    assertEquals(n + 3, toList(tree.findAll()).size());
+                    assertEquals(n * 10, (int) tree.findFirst(n));
+                    assertEquals(-10, (int) tree.findFirst(-1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBulkLoadBalancesTheLastNodeOfEachLevel() throws Exception {
+        for (int maxKeys = 3; maxKeys <= 5; maxKeys++) {
+            for (double fillFactor : new double[] { 1.0, 0.5 }) {
+                for (int n = 0; n <= 300; n++) {
+                    try (BPlusTree<Integer, Integer> tree = create(maxKeys)) {
+                        tree.bulkLoad(IntStream.range(0, n).mapToObj(x -> Entry.create(x, x)).iterator(),
+                                fillFactor);
+                        checkStructure(tree);
+                        assertEquals(n, toList(tree.findAll()).size());
+                        Node<Integer, Integer> node = tree.root();
+                        while (node instanceof NonLeaf) {
+                            NonLeaf<Integer, Integer> parent = (NonLeaf<Integer, Integer>) node;
+                            assertTrue(parent.numKeys() > 0);
+                            node = parent.child(parent.numKeys());
+                            int minKeys = node instanceof Leaf ? node.options().maxLeafKeys() / 2
+                                    : node.options().maxNonLeafKeys() / 2;
+                            assertTrue(node.numKeys() >= minKeys);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBulkLoadOutOfOrderThrows() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = create(3)) {
+            tree.bulkLoad(Arrays.asList(Entry.create(1, 1), Entry.create(0, 0)).iterator());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBulkLoadNonEmptyTreeThrows() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = create(3)) {
+            tree.insert(1, 1);
+            tree.bulkLoad(Collections.<Entry<Integer, Integer>>emptyIterator());
+        }
+    }
+
+    @Test
+    public void testBulkImport() throws Exception {
+        for (int n : new int[] { 0, 1, 10, 1000 }) {
+            try (BPlusTree<Integer, Integer> tree = create(3)) {
+                List<Integer> values = IntStream.range(0, n).boxed().collect(Collectors.toList());
+                Collections.shuffle(values, new Random(n));
+                // a small budget so that the file tree sorts in many runs
+                tree.bulkImport(values.stream().map(x -> Entry.create(x % 300, x)).iterator(), 50);
+                // equal keys keep their input order
+                List<Integer> expected = new ArrayList<>(values);
+                expected.sort((a, b) -> Integer.compare(a % 300, b % 300));
+                assertEquals(expected, toList(tree.findAll()));
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBulkImportNonEmptyTreeThrows() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = create(3)) {
+            tree.insert(1, 1);
+            tree.bulkImport(Collections.<Entry<Integer, Integer>>emptyIterator(), 100);
+        }
+    }
+
+    @Test
+    public void testInsertAll() throws Exception {
+        for (int maxKeys = 3; maxKeys <= 5; maxKeys++) {
+            try (BPlusTree<Integer, Integer> tree = create(maxKeys)) {
+                List<Integer> values = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+                Collections.shuffle(values, new Random(maxKeys));
+                for (int i = 0; i < values.size(); i += 100) {
+                    tree.insertAll(values.subList(i, i + 100).stream().map(x -> Entry.create(x, x * 10))
+                            .collect(Collectors.toList()));
+                }
+                assertEquals(IntStream.range(0, 1000).map(x -> x * 10).boxed().collect(Collectors.toList()),
+                        toList(tree.findAll()));
+                for (int i = 0; i < 1000; i++) {
+                    assertEquals(i * 10, (int) tree.findFirst(i));
+                }
+                checkStructure(tree);
+            }
+        }
+    }
+
+    @Test
+    public void testInsertAllSameAsInsertInKeyOrder() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = create(3); BPlusTree<Integer, Integer> tree2 = create(3)) {
+            List<Entry<Integer, Integer>> entries = IntStream.range(0, 500)
+                    .mapToObj(x -> Entry.create(x * 7 % 100, x)).collect(Collectors.toList());
+            for (int i = 0; i < entries.size(); i += 50) {
+                List<Entry<Integer, Integer>> batch = entries.subList(i, i + 50);
+                tree.insertAll(batch);
+                batch.stream().sorted((a, b) -> Integer.compare(a.key(), b.key()))
+                        .forEach(e -> tree2.insert(e.key(), e.value()));
+            }
+            assertEquals(toList(tree2.findAll()), toList(tree.findAll()));
+            checkStructure(tree);
+        }
+    }
+
+    @Test
+    public void testRemoveFromRootLeaf() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = create(4)) {
+            tree.insert(1, 10);
+            tree.insert(2, 20);
+            assertEquals(1, tree.remove(1));
+            assertEquals(0, tree.remove(1));
+            assertNull(tree.findFirst(1));
+            assertEquals(Arrays.asList(20), toList(tree.findAll()));
+            assertEquals(1, tree.remove(2));
+            assertTrue(toList(tree.findAll()).isEmpty());
+            tree.insert(3, 30);
+            assertEquals(Arrays.asList(30), toList(tree.findAll()));
+        }
+    }
+
+    @Test
+    public void testRemoveAllInRandomOrder() throws Exception {
+        for (int maxKeys = 2; maxKeys <= 6; maxKeys++) {
+            try (BPlusTree<Integer, Integer> tree = create(maxKeys)) {
+                int n = 300;
+                List<Integer> keys = IntStream.range(0, n).boxed().collect(Collectors.toList());
+                Collections.shuffle(keys, new Random(maxKeys));
+                keys.forEach(x -> tree.insert(x, x * 10));
+                Collections.shuffle(keys, new Random(maxKeys + 100));
+                List<Integer> remaining = IntStream.range(0, n).boxed().collect(Collectors.toList());
+                for (Integer key : keys) {
+                    assertEquals(1, tree.remove(key));
+                    remaining.remove(key);
+                    checkStructure(tree);
+                    assertEquals(remaining.stream().map(x -> x * 10).collect(Collectors.toList()),
+                            toList(tree.findAll()));
+                }
+                assertTrue(tree.root() instanceof Leaf);
+            }
+        }
+    }
+
+    @Test
+    public void testRandomInsertsAndRemoves() throws Exception {
+        for (int maxKeys = 2; maxKeys <= 6; maxKeys++) {
+            Random r = new Random(maxKeys);
+            try (BPlusTree<Integer, Integer> tree = create(maxKeys)) {
+                TreeMap<Integer, Integer> map = new TreeMap<>();
+                for (int i = 0; i < 3000; i++) {
+                    int key = r.nextInt(500);
+                    int op = r.nextInt(10);
+                    if (op < 5) {
+                        if (!map.containsKey(key)) {
+                            tree.insert(key, i);
+                            map.put(key, i);
+                        }
+                    } else if (op < 8) {
+                        assertEquals(map.remove(key) == null ? 0 : 1, tree.remove(key));
+                    } else {
+                        int finish = key + r.nextInt(50);
+                        Map<Integer, Integer> sub = map.subMap(key, finish);
+                        assertEquals(sub.size(), tree.removeRange(key, finish));
+                        sub.clear();
+                    }
+                    checkStructure(tree);
+                }
+                assertEquals(new ArrayList<>(map.values()), toList(tree.findAll()));
+                for (int key = 0; key < 500; key++) {
+                    assertEquals(map.get(key), tree.findFirst(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRemoveRange() throws Exception {
+        for (int maxKeys = 2; maxKeys <= 6; maxKeys++) {
+            for (int start = 0; start <= 100; start += 7) {
+                for (int finish = start; finish <= 101; finish += 13) {
+                    try (BPlusTree<Integer, Integer> tree = create(maxKeys)) {
+                        for (int i = 0; i < 100; i++) {
+                            tree.insert(i, i);
+                        }
+                        int s = start;
+                        int f = finish;
+                        assertEquals(Math.min(finish, 100) - start, tree.removeRange(start, finish));
+                        checkStructure(tree);
+                        assertEquals(IntStream.range(0, 100).filter(x -> x < s || x >= f).boxed()
+                                .collect(Collectors.toList()), toList(tree.findAll()));
+                        // can insert afterwards
+                        for (int i = start; i < finish; i++) {
+                            tree.insert(i, i);
+                        }
+                        checkStructure(tree);
+                        assertEquals(IntStream.range(0, Math.max(100, finish)).boxed()
+                                .collect(Collectors.toList()), toList(tree.findAll()));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRemoveRangeFinishInclusive() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = create(3)) {
+            for (int i = 0; i < 10; i++) {
+                tree.insert(i, i);
+            }
+            assertEquals(0, tree.removeRange(5, 5, false));
+            assertEquals(0, tree.removeRange(6, 5, true));
+            assertEquals(3, tree.removeRange(3, 5, true));
+            assertEquals(Arrays.asList(0, 1, 2, 6, 7, 8, 9), toList(tree.findAll()));
+        }
+    }
+
+    @Test
+    public void testRemoveDuplicateKeys() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = create(3)) {
+            for (int i = 0; i < 20; i++) {
+                tree.insert(i, i);
+                tree.insert(5, 100 + i);
+            }
+            assertTrue(tree.remove(5, 107));
+            assertFalse(tree.remove(5, 107));
+            assertFalse(tree.remove(6, 107));
+            checkStructure(tree);
+            assertEquals(20, toList(tree.findAll()).stream().filter(x -> x >= 100 || x == 5).count());
+            assertEquals(20, tree.remove(5));
+            checkStructure(tree);
+            assertEquals(IntStream.range(0, 20).filter(x -> x != 5).boxed().collect(Collectors.toList()),
+                    toList(tree.findAll()));
+        }
+    }
+
+    /**
+     * Checks that keys are ordered, that all leaves are at the same depth and
+     * not empty (unless the root), that the count held for each child is the
+     * number of entries under it and that following the next and previous leaf
+     * links visits the leaves in order.
+     */
+    private static <K extends Comparable<K>, V> void checkStructure(BPlusTree<K, V> tree) {
+        List<Leaf<K, V>> leaves = new ArrayList<>();
+        checkStructure(tree.root(), null, null, 0, new int[] { -1 }, leaves);
+        Leaf<K, V> leaf = leaves.get(0);
+        for (int i = 0; i < leaves.size(); i++) {
+            assertEquals(leaves.get(i).keys(), leaf.keys());
+            leaf = leaf.next();
+        }
+        assertNull(leaf);
+        leaf = leaves.get(leaves.size() - 1);
+        for (int i = leaves.size() - 1; i >= 0; i--) {
+            assertEquals(leaves.get(i).keys(), leaf.keys());
+            leaf = leaf.previous();
+        }
+        assertNull(leaf);
+    }
+
+    private static <K extends Comparable<K>, V> long checkStructure(Node<K, V> node, K min, K max, int depth,
+            int[] leafDepth, List<Leaf<K, V>> leaves) {
+        List<K> keys = node.keys();
+        for (int i = 0; i < keys.size(); i++) {
+            K key = keys.get(i);
+            assertTrue(i == 0 || keys.get(i - 1).compareTo(key) <= 0);
+            assertTrue(min == null || min.compareTo(key) <= 0);
+            assertTrue(max == null || key.compareTo(max) <= 0);
+        }
+        if (node instanceof Leaf) {
+            if (leafDepth[0] == -1) {
+                leafDepth[0] = depth;
+            }
+            assertEquals(leafDepth[0], depth);
+            assertTrue(depth == 0 || node.numKeys() > 0);
+            leaves.add((Leaf<K, V>) node);
+            return node.numKeys();
+        } else {
+            NonLeaf<K, V> n = (NonLeaf<K, V>) node;
+            long count = 0;
+            for (int i = 0; i <= n.numKeys(); i++) {
+                long c = checkStructure(n.child(i), i == 0 ? min : keys.get(i - 1),
+                        i == keys.size() ? max : keys.get(i), depth + 1, leafDepth, leaves);
+                assertEquals(c, n.count(i));
+                count += c;
+            }
+            return count;
+        }
+    }
 }
@@ -1,7 +1,14 @@
 package com.github.davidmoten.bplustree;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 import org.mapdb.BTreeMap;
 import org.mapdb.DB;
@@ -11,12 +18,20 @@ import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Level;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
 import org.openjdk.jmh.annotations.Warmup;
 
+import com.github.davidmoten.bplustree.internal.LargeMappedByteBuffer;
+import com.github.davidmoten.bplustree.internal.Leaf;
+import com.github.davidmoten.bplustree.internal.Node;
+import com.github.davidmoten.bplustree.internal.NonLeaf;
+
 public class Benchmarks {
 
     private static final LargeByteBuffer a = createLong();
@@ -70,6 +85,35 @@ public class Benchmarks {
         }
     }
 
+    @State(Scope.Thread)
+    public static class EmptyTreeEachIteration {
+
+        BPlusTree<Integer, Integer> tree;
+
+        @Setup(Level.Iteration)
+        public void doSetup() {
+            tree = BPlusTree //
+                    .file() //
+                    .directory("target/bench-bulk") //
+                    .clearDirectory() //
+                    .deleteOnClose() //
+                    .maxKeys(MAX_KEYS) //
+                    .segmentSizeMB(10) //
+                    .keySerializer(Serializer.INTEGER) //
+                    .valueSerializer(Serializer.INTEGER) //
+                    .naturalOrder();
+        }
+
+        @TearDown(Level.Iteration)
+        public void doTearDown() {
+            try {
+                tree.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     @State(Scope.Thread)
     public static class EmptyTreeMapDb {
 
@@ -134,24 +178,79 @@ public class Benchmarks {
     }
 
     @State(Scope.Thread)
-    public static class NonEmptyTreeMapDb {
+    public static class InsertLatency {
 
-        private DB db;
-        private BTreeMap<Integer, Integer> tree;
+        @Param({ "0", "2" })
+        int preallocateSegments;
+
+        BPlusTree<Integer, Integer> tree;
+        int key;
 
         @Setup(Level.Trial)
         public void doSetup() {
-            db = DBMaker.fileDB(new File("target/mapdb")) //
-                    .concurrencyDisable() //
-                    .fileDeleteAfterClose() //
-                    .fileMmapEnableIfSupported() //
-                    .make();
-            tree = db.treeMap("tree") //
-                    .keySerializer(org.mapdb.Serializer.INTEGER) //
-                    .valueSerializer(org.mapdb.Serializer.INTEGER) //
-                    .createOrOpen();
-            for (int i = 0; i < NON_EMPTY_COUNT; i++) {
-                tree.put(i, i);
+            tree = BPlusTree //
+                    .file() //
+                    .directory("target/bench-latency") //
+                    .clearDirectory() //
+                    .deleteOnClose() //
+                    .maxLeafKeys(MAX_KEYS) //
+                    .segmentSizeMB(1) //
+                    .preallocateSegments(preallocateSegments) //
+                    .keySerializer(Serializer.INTEGER) //
+                    .valueSerializer(Serializer.INTEGER) //
+                    .naturalOrder();
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() {
+            try {
+                tree.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class MicroBatch {
+
+        static final int BATCH_SIZE = 10000;
+
+        // random: keys spread over the whole key space, clustered: keys fall in
+        // a narrow range (like events from a short time window)
+        @Param({ "random", "clustered" })
+        String keys;
+
+        BPlusTree<Integer, Integer> tree;
+        final Random random = new Random();
+        final List<Entry<Integer, Integer>> batch = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void doSetup() {
+            tree = BPlusTree //
+                    .file() //
+                    .directory("target/bench-batch") //
+                    .clearDirectory() //
+                    .deleteOnClose() //
+                    .maxKeys(MAX_KEYS) //
+                    .segmentSizeMB(10) //
+                    .keySerializer(Serializer.INTEGER) //
+                    .valueSerializer(Serializer.INTEGER) //
+                    .naturalOrder();
+        }
+
+        @Setup(Level.Invocation)
+        public void createBatch() {
+            batch.clear();
+            int start = random.nextInt(Integer.MAX_VALUE / 2);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                int key;
+                if (keys.equals("random")) {
+                    key = random.nextInt(Integer.MAX_VALUE);
+                } else {
+                    key = start + random.nextInt(BATCH_SIZE * 4);
+                }
+                batch.add(Entry.create(key, key));
             }
         }
 
@@ -159,47 +258,779 @@ public class Benchmarks {
         public void doTearDown() {
             try {
                 tree.close();
-                db.close();
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
         }
     }
 
-    @Benchmark
-    @BenchmarkMode(Mode.SingleShotTime)
-    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
-    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
-    public void storeManyIntsBPlusTree(EmptyTree state) throws Exception {
-        for (int i = 0; i < MANY; i++) {
-            state.tree.insert(i, i);
+    @State(Scope.Thread)
+    public static class AlignedTree {
+
+        @Param({ "0", "4096" })
+        int nodeAlignmentBytes;
+
+        BPlusTree<Long, Long> tree;
+        final Random random = new Random();
+
+        @Setup(Level.Trial)
+        public void doSetup() {
+            tree = BPlusTree //
+                    .file() //
+                    .directory("target/bench-aligned") //
+                    .clearDirectory() //
+                    .deleteOnClose() //
+                    .maxKeys(100) //
+                    .segmentSizeMB(10) //
+                    .nodeAlignmentBytes(nodeAlignmentBytes) //
+                    .keySerializer(Serializer.LONG) //
+                    .valueSerializer(Serializer.LONG) //
+                    .naturalOrder();
+            for (long i = 0; i < NON_EMPTY_COUNT; i++) {
+                tree.insert(i, i);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() {
+            try {
+                tree.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 
-    @Benchmark
-    @BenchmarkMode(Mode.SingleShotTime)
-    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
-    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
-    public void storeManyIntsMapDb(EmptyTreeMapDb state) {
-        for (int i = 0; i < MANY; i++) {
-            state.tree.put(i, i);
+    @State(Scope.Thread)
+    public static class PinnedLevelsTree {
+
+        // 8 gives a tall tree, 100 a short one
+        @Param({ "8", "100" })
+        int maxKeys;
+
+        @Param({ "0", "2", "100" })
+        int pinnedLevels;
+
+        BPlusTree<Long, Long> tree;
+        final Random random = new Random();
+
+        @Setup(Level.Trial)
+        public void doSetup() {
+            tree = BPlusTree //
+                    .file() //
+                    .directory("target/bench-pinned") //
+                    .clearDirectory() //
+                    .deleteOnClose() //
+                    .maxKeys(maxKeys) //
+                    .segmentSizeMB(10) //
+                    .pinnedLevels(pinnedLevels) //
+                    .keySerializer(Serializer.LONG) //
+                    .valueSerializer(Serializer.LONG) //
+                    .naturalOrder();
+            for (long i = 0; i < NON_EMPTY_COUNT; i++) {
+                tree.insert(i, i);
+            }
+            int height = 1;
+            Node<Long, Long> node = tree.root();
+            while (node instanceof NonLeaf) {
+                node = ((NonLeaf<Long, Long>) node).child(0);
+                height++;
+            }
+            System.out.println("\nheight=" + height);
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() {
+            try {
+                tree.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 
-    @Benchmark
-    @BenchmarkMode(Mode.Throughput)
-    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
-    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
-    public long rangeSearchManyIntsBPlusTree(NonEmptyTree state) {
-        return count(state.tree.find(100000, 100000, true).iterator());
+    @State(Scope.Thread)
+    public static class SkewedReadTree {
+
+        @Param({ "0", "16777216" })
+        long valueCacheBytes;
+
+        @Param({ "50", "1000" })
+        int valueLength;
+
+        BPlusTree<Long, String> tree;
+        final Random random = new Random();
+
+        @Setup(Level.Trial)
+        public void doSetup() {
+            tree = BPlusTree //
+                    .file() //
+                    .directory("target/bench-skewed") //
+                    .clearDirectory() //
+                    .deleteOnClose() //
+                    .maxKeys(100) //
+                    .segmentSizeMB(10) //
+                    .valueCacheBytes(valueCacheBytes) //
+                    .keySerializer(Serializer.LONG) //
+                    .valueSerializer(Serializer.utf8()) //
+                    .naturalOrder();
+            StringBuilder text = new StringBuilder();
+            while (text.length() < valueLength) {
+                text.append("some text ");
+            }
+            for (long i = 0; i < NON_EMPTY_COUNT; i++) {
+                String s = "log entry " + i + " " + text;
+                tree.insert(i, s.substring(0, valueLength));
+            }
+        }
+
+        long nextKey() {
+            // mostly recent entries, an occasional read anywhere
+            if (random.nextInt(10) == 0) {
+                return random.nextInt(NON_EMPTY_COUNT);
+            } else {
+                return NON_EMPTY_COUNT - 1 - Math.min(NON_EMPTY_COUNT - 1, (long) Math.abs(random.nextGaussian() * 5000));
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() {
+            System.out.println("\n" + tree.valueCacheStats());
+            try {
+                tree.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
     }
 
-    @Benchmark
-    @BenchmarkMode(Mode.Throughput)
-    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
-    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
-    public long rangeSearchManyIntsMapDb(NonEmptyTreeMapDb state) {
-        return count(state.tree.valueIterator(100000, true, 100000, true));
+    @State(Scope.Thread)
+    public static class EventsTree {
+
+        BPlusTree<Long, String> tree;
+        final Random random = new Random();
+
+        @Setup(Level.Trial)
+        public void doSetup() {
+            tree = BPlusTree //
+                    .file() //
+                    .directory("target/bench-events") //
+                    .clearDirectory() //
+                    .deleteOnClose() //
+                    .maxKeys(100) //
+                    .segmentSizeMB(10) //
+                    .keySerializer(Serializer.LONG) //
+                    .valueSerializer(Serializer.utf8()) //
+                    .naturalOrder();
+            for (long i = 0; i < NON_EMPTY_COUNT; i++) {
+                tree.insert(i, "event " + i + " with a payload of about a hundred bytes of text to deserialize");
+            }
+        }
+
+        long windowStart() {
+            return random.nextInt(NON_EMPTY_COUNT - 10000);
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() {
+            try {
+                tree.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class LongKeysTree {
+
+        // natural order keys are compared as primitives, a custom comparator
+        // deserializes a boxed key for every comparison
+        @Param({ "naturalOrder", "comparator" })
+        String order;
+
+        BPlusTree<Long, Long> tree;
+        final Random random = new Random();
+
+        @Setup(Level.Trial)
+        public void doSetup() {
+            BPlusTree.BuilderFile4<Long, Long> b = BPlusTree //
+                    .file() //
+                    .directory("target/bench-long-keys") //
+                    .clearDirectory() //
+                    .deleteOnClose() //
+                    .maxKeys(100) //
+                    .segmentSizeMB(10) //
+                    .keySerializer(Serializer.LONG) //
+                    .valueSerializer(Serializer.LONG);
+            if (order.equals("naturalOrder")) {
+                tree = b.naturalOrder();
+            } else {
+                tree = b.comparator((x, y) -> Long.compare(x, y));
+            }
+            for (long i = 0; i < NON_EMPTY_COUNT; i++) {
+                tree.insert(i, i);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() {
+            try {
+                tree.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class StringKeysTree {
+
+        // order preserving keys are compared in place in the index, otherwise
+        // every comparison deserializes a key
+        @Param({ "true", "false" })
+        boolean orderPreserving;
+
+        BPlusTree<String, Long> tree;
+        final Random random = new Random();
+
+        @Setup(Level.Trial)
+        public void doSetup() {
+            tree = BPlusTree //
+                    .file() //
+                    .directory("target/bench-string-keys") //
+                    .clearDirectory() //
+                    .deleteOnClose() //
+                    .maxKeys(100) //
+                    .segmentSizeMB(10) //
+                    .keySerializer(asciiFixed(16, orderPreserving)) //
+                    .valueSerializer(Serializer.LONG) //
+                    .naturalOrder();
+            for (long i = 0; i < NON_EMPTY_COUNT; i++) {
+                tree.insert(stringKey(i), i);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() {
+            try {
+                tree.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static String stringKey(long i) {
+        return String.format("%016d", i);
+    }
+
+    private static Serializer<String> asciiFixed(int size, boolean orderPreserving) {
+        return new Serializer<String>() {
+
+            @Override
+            public String read(LargeByteBuffer bb) {
+                byte[] bytes = new byte[size];
+                bb.get(bytes);
+                return new String(bytes, StandardCharsets.US_ASCII);
+            }
+
+            @Override
+            public void write(LargeByteBuffer bb, String s) {
+                bb.put(s.getBytes(StandardCharsets.US_ASCII));
+            }
+
+            @Override
+            public int maxSize() {
+                return size;
+            }
+
+            @Override
+            public boolean isFixedSize() {
+                return true;
+            }
+
+            @Override
+            public boolean isOrderPreserving() {
+                return orderPreserving;
+            }
+        };
+    }
+
+    @State(Scope.Thread)
+    public static class InsertOrderTree {
+
+        @Param({ "sequential", "nearSequential", "random" })
+        String order;
+
+        @Param({ "false", "true" })
+        boolean appendOptimizedSplits;
+
+        BPlusTree<Integer, Integer> tree;
+        final Random random = new Random(1);
+
+        @Setup(Level.Trial)
+        public void doSetup() {
+            tree = BPlusTree //
+                    .file() //
+                    .directory("target/bench-order") //
+                    .clearDirectory() //
+                    .deleteOnClose() //
+                    .maxKeys(MAX_KEYS) //
+                    .segmentSizeMB(10) //
+                    .appendOptimizedSplits(appendOptimizedSplits) //
+                    .keySerializer(Serializer.INTEGER) //
+                    .valueSerializer(Serializer.INTEGER) //
+                    .naturalOrder();
+            for (int i = 0; i < NON_EMPTY_COUNT; i++) {
+                int key;
+                if (order.equals("sequential")) {
+                    key = i;
+                } else if (order.equals("nearSequential")) {
+                    key = i + random.nextInt(100);
+                } else {
+                    key = random.nextInt(NON_EMPTY_COUNT);
+                }
+                tree.insert(key, i);
+            }
+            // index size is proportional to the number of leaves
+            long leaves = 0;
+            long keys = 0;
+            Leaf<Integer, Integer> leaf = tree.firstLeaf(tree.root());
+            while (leaf != null) {
+                leaves++;
+                keys += leaf.numKeys();
+                leaf = leaf.next();
+            }
+            System.out.println("\nleaves=" + leaves + ", leafFill=" + (double) keys / leaves / MAX_KEYS);
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() {
+            try {
+                tree.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SharedTree {
+
+        BPlusTree<Integer, Integer> tree;
+
+        @Setup(Level.Trial)
+        public void doSetup() {
+            tree = BPlusTree //
+                    .file() //
+                    .directory("target/bench-shared") //
+                    .clearDirectory() //
+                    .deleteOnClose() //
+                    .maxLeafKeys(MAX_KEYS) //
+                    .segmentSizeMB(10) //
+                    .keySerializer(Serializer.INTEGER) //
+                    .valueSerializer(Serializer.INTEGER) //
+                    .naturalOrder();
+            for (int i = 0; i < NON_EMPTY_COUNT; i++) {
+                tree.insert(i, i);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() {
+            try {
+                tree.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ReadView {
+
+        BPlusTree<Integer, Integer> view;
+        final Random random = new Random();
+
+        @Setup(Level.Trial)
+        public void doSetup(SharedTree shared) {
+            view = shared.tree.readView();
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() {
+            try {
+                view.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class NonEmptyTreeMapDb {
+
+        private DB db;
+        private BTreeMap<Integer, Integer> tree;
+
+        @Setup(Level.Trial)
+        public void doSetup() {
+            db = DBMaker.fileDB(new File("target/mapdb")) //
+                    .concurrencyDisable() //
+                    .fileDeleteAfterClose() //
+                    .fileMmapEnableIfSupported() //
+                    .make();
+            tree = db.treeMap("tree") //
+                    .keySerializer(org.mapdb.Serializer.INTEGER) //
+                    .valueSerializer(org.mapdb.Serializer.INTEGER) //
+                    .createOrOpen();
+            for (int i = 0; i < NON_EMPTY_COUNT; i++) {
+                tree.put(i, i);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() {
+            try {
+                tree.close();
+                db.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ManySegments {
+
+        private static final int SEGMENT_SIZE_BYTES = 4096;
+        private static final int NUM_POSITIONS = 1024;
+
+        @Param({ "10", "1000", "10000" })
+        int numSegments;
+
+        LargeMappedByteBuffer bb;
+        long[] positions;
+        int index;
+
+        @Setup(Level.Trial)
+        public void doSetup() {
+            File directory = new File("target/bench-segments");
+            BPlusTree.file().directory(directory).clearDirectory();
+            bb = new LargeMappedByteBuffer(directory, SEGMENT_SIZE_BYTES, "segment-");
+            // touch every segment so that all are mapped before measurement
+            for (long i = 0; i < numSegments; i++) {
+                bb.position(i * SEGMENT_SIZE_BYTES);
+                bb.putLong(i);
+            }
+            Random random = new Random(123);
+            positions = new long[NUM_POSITIONS];
+            for (int i = 0; i < NUM_POSITIONS; i++) {
+                positions[i] = random.nextInt(numSegments) * (long) SEGMENT_SIZE_BYTES
+                        + random.nextInt(SEGMENT_SIZE_BYTES / Long.BYTES) * Long.BYTES;
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() {
+            try {
+                bb.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            BPlusTree.file().directory("target/bench-segments").clearDirectory();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public long pointLookupManySegments(ManySegments state) {
+        state.index = (state.index + 1) % ManySegments.NUM_POSITIONS;
+        state.bb.position(state.positions[state.index]);
+        return state.bb.getLong();
+    }
+
+    /**
+     * Latency distribution (see the p0.99 and above percentiles) of single
+     * inserts. Small segments mean writes cross into new segments often.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public void insertLatency(InsertLatency state) {
+        state.tree.insert(state.key, state.key);
+        state.key++;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public void insertMicroBatchOneByOne(MicroBatch state) {
+        for (Entry<Integer, Integer> entry : state.batch) {
+            state.tree.insert(entry.key(), entry.value());
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public void insertMicroBatchInsertAll(MicroBatch state) {
+        state.tree.insertAll(state.batch);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public void storeManyIntsBPlusTree(EmptyTree state) throws Exception {
+        for (int i = 0; i < MANY; i++) {
+            state.tree.insert(i, i);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public void insertManyIntsBPlusTree(EmptyTreeEachIteration state) {
+        for (int i = 0; i < MANY; i++) {
+            state.tree.insert(i, i);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public void bulkLoadManyIntsBPlusTree(EmptyTreeEachIteration state) {
+        state.tree.bulkLoad(IntStream.range(0, MANY).mapToObj(i -> Entry.create(i, i)).iterator());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public void bulkImportManyUnsortedIntsBPlusTree(EmptyTreeEachIteration state) {
+        // a permutation of 0..MANY-1 (1000003 is prime so coprime with MANY)
+        state.tree.bulkImport(IntStream.range(0, MANY) //
+                .mapToObj(i -> (int) (i * 1000003L % MANY)) //
+                .map(i -> Entry.create(i, i)) //
+                .iterator(), MANY / 4);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public void storeManyIntsMapDb(EmptyTreeMapDb state) {
+        for (int i = 0; i < MANY; i++) {
+            state.tree.put(i, i);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public long rangeSearchManyIntsBPlusTree(NonEmptyTree state) {
+        return count(state.tree.find(100000, 100000, true).iterator());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public long latest100BeforeByForwardScan(NonEmptyTree state) {
+        // keep the last 100 values of a scan from the start
+        ArrayDeque<Integer> latest = new ArrayDeque<>();
+        for (Integer value : state.tree.find(0, NON_EMPTY_COUNT / 2)) {
+            if (latest.size() == 100) {
+                latest.removeFirst();
+            }
+            latest.addLast(value);
+        }
+        return latest.size();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public long latest100BeforeDescending(NonEmptyTree state) {
+        Iterator<Integer> it = state.tree.findDescending(0, NON_EMPTY_COUNT / 2).iterator();
+        long count = 0;
+        while (count < 100 && it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public long rangeSearchManyIntsMapDb(NonEmptyTreeMapDb state) {
+        return count(state.tree.valueIterator(100000, true, 100000, true));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public long rangeScanByInsertOrder(InsertOrderTree state) {
+        int start = state.random.nextInt(NON_EMPTY_COUNT - 10000);
+        return count(state.tree.find(start, start + 10000).iterator());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public Long pointLookupLongKeys(LongKeysTree state) {
+        return state.tree.findFirst((long) state.random.nextInt(NON_EMPTY_COUNT));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public long countWindowByFind(EventsTree state) {
+        long start = state.windowStart();
+        return count(state.tree.find(start, start + 10000).iterator());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public long countWindowByFindKeys(EventsTree state) {
+        long start = state.windowStart();
+        return count(state.tree.findKeys(start, start + 10000).iterator());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public long countWindowByCount(EventsTree state) {
+        long start = state.windowStart();
+        return state.tree.count(start, start + 10000);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public long pageOfWindowBySkipping(EventsTree state) {
+        long start = state.windowStart();
+        Iterator<String> it = state.tree.find(start, start + 10000).iterator();
+        for (int i = 0; i < 5000; i++) {
+            it.next();
+        }
+        long n = 0;
+        while (n < 10 && it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public long pageOfWindowByOffset(EventsTree state) {
+        long start = state.windowStart();
+        return count(state.tree.find(start, start + 10000, false, 5000, 10).iterator());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public String pointLookupSkewed(SkewedReadTree state) {
+        return state.tree.findFirst(state.nextKey());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public Long pointLookupPinnedLevels(PinnedLevelsTree state) {
+        return state.tree.findFirst((long) state.random.nextInt(NON_EMPTY_COUNT));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public Long pointLookupStringKeys(StringKeysTree state) {
+        return state.tree.findFirst(stringKey(state.random.nextInt(NON_EMPTY_COUNT)));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public Long pointLookupAligned(AlignedTree state) {
+        return state.tree.findFirst((long) state.random.nextInt(NON_EMPTY_COUNT));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public long rangeScanAligned(AlignedTree state) {
+        long start = state.random.nextInt(NON_EMPTY_COUNT - 1000);
+        return count(state.tree.find(start, start + 1000).iterator());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    @Threads(1)
+    public Integer findFirstReadView1Thread(ReadView state) {
+        return findFirstReadView(state);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    @Threads(2)
+    public Integer findFirstReadView2Threads(ReadView state) {
+        return findFirstReadView(state);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    @Threads(4)
+    public Integer findFirstReadView4Threads(ReadView state) {
+        return findFirstReadView(state);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    @Threads(Threads.MAX)
+    public Integer findFirstReadViewMaxThreads(ReadView state) {
+        return findFirstReadView(state);
+    }
+
+    private static Integer findFirstReadView(ReadView state) {
+        return state.view.findFirst(state.random.nextInt(NON_EMPTY_COUNT));
     }
 
     private static long count(Iterator<?> it) {
@@ -1,11 +1,24 @@
 package com.github.davidmoten.bplustree;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 
 import com.github.davidmoten.bplustree.internal.Factory;
+import com.github.davidmoten.bplustree.internal.Insertion;
+import com.github.davidmoten.bplustree.internal.Leaf;
+import com.github.davidmoten.bplustree.internal.NonLeaf;
+import com.github.davidmoten.bplustree.internal.Split;
+import com.github.davidmoten.bplustree.internal.file.FactoryFile;
 import com.github.davidmoten.bplustree.internal.file.LeafFile;
+import com.github.davidmoten.bplustree.internal.file.NodeFile;
 import com.github.davidmoten.bplustree.internal.file.NonLeafFile;
 
 public class FactoryFileTest {
@@ -22,7 +35,7 @@ public class FactoryFileTest {
             assertEquals(0, leaf.numKeys());
             leaf.setNext(leaf2);
             assertEquals(leaf2.position(), leaf.next().position());
-            leaf.insert(3, Long.MAX_VALUE);
+            leaf.insert(3, Long.MAX_VALUE, new Insertion());
             assertEquals(1, leaf.numKeys());
             assertEquals(3, (int) leaf.key(0));
             leaf.setValue(0, 1234567890L);
@@ -42,6 +55,223 @@ public class FactoryFileTest {
         }
     }
     
+    @Test
+    public void testLeafInsertAndMove() throws Exception {
+        try (BPlusTree<Integer, Long> t = create()) {
+            Factory<Integer, Long> factory = t.factory();
+            LeafFile<Integer, Long> leaf = (LeafFile<Integer, Long>) factory.createLeaf();
+            leaf.insert(0, 3, 30L);
+            leaf.insert(0, 1, 10L);
+            leaf.insert(1, 2, 20L);
+            assertEquals(3, leaf.numKeys());
+            for (int i = 0; i < 3; i++) {
+                assertEquals(i + 1, (int) leaf.key(i));
+                assertEquals((i + 1) * 10L, (long) leaf.value(i));
+            }
+            LeafFile<Integer, Long> other = (LeafFile<Integer, Long>) factory.createLeaf();
+            leaf.move(1, 2, other);
+            assertEquals(1, leaf.numKeys());
+            assertEquals(2, other.numKeys());
+            assertEquals(2, (int) other.key(0));
+            assertEquals(20L, (long) other.value(0));
+            assertEquals(3, (int) other.key(1));
+            assertEquals(30L, (long) other.value(1));
+        }
+    }
+
+    @Test
+    public void testLeafRemoveAndMoveTo() throws Exception {
+        try (BPlusTree<Integer, Long> t = create()) {
+            Factory<Integer, Long> factory = t.factory();
+            LeafFile<Integer, Long> leaf = new LeafFile<Integer, Long>((FactoryFile<Integer, Long>) factory,
+                    ((LeafFile<Integer, Long>) factory.createLeaf()).position());
+            LeafFile<Integer, Long> other = new LeafFile<Integer, Long>((FactoryFile<Integer, Long>) factory,
+                    ((LeafFile<Integer, Long>) factory.createLeaf()).position());
+            for (int i = 0; i < 4; i++) {
+                leaf.insert(i, i, i * 10L);
+            }
+            leaf.remove(1, 2);
+            assertEquals(Arrays.asList(0, 3), leaf.keys());
+            assertEquals(30L, (long) leaf.value(1));
+            other.insert(0, 5, 50L);
+            other.insert(1, 6, 60L);
+            // move 3 into the middle of other
+            leaf.moveTo(1, 1, other, 1);
+            assertEquals(Arrays.asList(0), leaf.keys());
+            assertEquals(Arrays.asList(5, 3, 6), other.keys());
+            assertEquals(30L, (long) other.value(1));
+            assertEquals(60L, (long) other.value(2));
+        }
+    }
+
+    @Test
+    public void testFreedNodesAreReused() throws Exception {
+        try (BPlusTree<Integer, Long> t = create()) {
+            Factory<Integer, Long> factory = t.factory();
+            long leafPosition = ((LeafFile<Integer, Long>) factory.createLeaf()).position();
+            long nonLeafPosition = ((NonLeafFile<Integer, Long>) factory.createNonLeaf()).position();
+            factory.free(new LeafFile<Integer, Long>((FactoryFile<Integer, Long>) factory, leafPosition));
+            factory.free(new NonLeafFile<Integer, Long>((FactoryFile<Integer, Long>) factory, nonLeafPosition));
+            assertEquals(nonLeafPosition, ((NonLeafFile<Integer, Long>) factory.createNonLeaf()).position());
+            LeafFile<Integer, Long> leaf = (LeafFile<Integer, Long>) factory.createLeaf();
+            assertEquals(leafPosition, leaf.position());
+            assertEquals(0, leaf.numKeys());
+            assertNull(leaf.next());
+            assertTrue(((LeafFile<Integer, Long>) factory.createLeaf()).position() > nonLeafPosition);
+        }
+    }
+
+    @Test
+    public void testNonLeafInsertAndMove() throws Exception {
+        try (BPlusTree<Integer, Long> t = create()) {
+            Factory<Integer, Long> factory = t.factory();
+            List<LeafFile<Integer, Long>> children = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                children.add(new LeafFile<Integer, Long>((FactoryFile<Integer, Long>) factory,
+                        ((LeafFile<Integer, Long>) factory.createLeaf()).position()));
+            }
+            NonLeafFile<Integer, Long> n = (NonLeafFile<Integer, Long>) factory.createNonLeaf();
+            n.setNumKeys(1);
+            n.setKey(0, 30);
+            n.setChild(0, children.get(0));
+            n.setChild(1, children.get(3));
+            n.setCount(0, 100);
+            n.setCount(1, 103);
+            n.insert(0, 10, children.get(1));
+            n.setCount(0, 101);
+            n.insert(1, 20, children.get(2));
+            n.setCount(1, 102);
+            // children 1, 2, 0, 3 and keys 10, 20, 30
+            assertEquals(3, n.numKeys());
+            assertEquals(Arrays.asList(10, 20, 30), Arrays.asList(n.key(0), n.key(1), n.key(2)));
+            int[] expected = new int[] { 1, 2, 0, 3 };
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(children.get(expected[i]).position(), ((NodeFile) n.child(i)).position());
+                assertEquals(100 + expected[i], n.count(i));
+            }
+            NonLeafFile<Integer, Long> other = (NonLeafFile<Integer, Long>) factory.createNonLeaf();
+            // key 20 moves up to the parent
+            n.move(2, other, 1);
+            assertEquals(1, n.numKeys());
+            assertEquals(1, other.numKeys());
+            assertEquals(30, (int) other.key(0));
+            assertEquals(children.get(0).position(), ((NodeFile) other.child(0)).position());
+            assertEquals(children.get(3).position(), ((NodeFile) other.child(1)).position());
+            assertEquals(100, other.count(0));
+            assertEquals(103, other.count(1));
+        }
+    }
+
+    @Test
+    public void testAlignedNodesDoNotStraddleAlignmentBoundary() throws Exception {
+        try (BPlusTree<Integer, Long> t = BPlusTree //
+                .file() //
+                .directory("target/facfile-aligned") //
+                .clearDirectory() //
+                .deleteOnClose() //
+                .maxKeys(3) //
+                .segmentSizeBytes(1024) //
+                .nodeAlignmentBytes(64) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.LONG) //
+                .naturalOrder()) {
+            Factory<Integer, Long> factory = t.factory();
+            // leaf and non-leaf are 47 bytes so at most one fits in 64 bytes
+            for (int i = 0; i < 100; i++) {
+                long p = ((LeafFile<Integer, Long>) factory.createLeaf()).position();
+                assertEquals(0, p % 64);
+                p = ((NonLeafFile<Integer, Long>) factory.createNonLeaf()).position();
+                assertEquals(0, p % 64);
+            }
+        }
+    }
+
+    @Test
+    public void testMaxKeysFromNodeSize() {
+        // 1 type byte, 2 num keys bytes, 16 next and previous leaf bytes and 16
+        // bytes per key or 16 last child position and count bytes and 24 bytes per
+        // key
+        assertEquals(254, FactoryFile.maxLeafKeys(4096, Serializer.LONG, Serializer.utf8()));
+        assertEquals(169, FactoryFile.maxNonLeafKeys(4096, Serializer.LONG));
+        assertEquals(1022, FactoryFile.maxLeafKeys(16384, Serializer.LONG, Serializer.LONG));
+        // inline int values take 4 bytes rather than an 8 byte pointer
+        assertEquals(1363, FactoryFile.maxLeafKeys(16384, Serializer.LONG, Serializer.INTEGER));
+        assertEquals(65535, FactoryFile.maxLeafKeys(Integer.MAX_VALUE, Serializer.LONG, Serializer.LONG));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxKeysFromNodeSizeTooSmall() {
+        FactoryFile.maxLeafKeys(40, Serializer.LONG, Serializer.LONG);
+    }
+
+    @Test
+    public void testChangesThroughPinnedNodeReachTheIndex() throws Exception {
+        try (BPlusTree<Integer, Long> t = BPlusTree //
+                .file() //
+                .directory("target/facfile") //
+                .clearDirectory() //
+                .maxKeys(3) //
+                .pinnedLevels(2) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.LONG) //
+                .naturalOrder()) {
+            for (int i = 0; i < 100; i++) {
+                t.insert(i, (long) i);
+            }
+            Factory<Integer, Long> factory = t.factory();
+            NonLeaf<Integer, Long> pinned = (NonLeaf<Integer, Long>) factory.cursor().start(t.root());
+            assertFalse(pinned instanceof NonLeafFile);
+            int key = pinned.key(0);
+            pinned.setKey(0, key - 1);
+            assertEquals(key - 1, (int) pinned.key(0));
+            assertEquals(key - 1, (int) ((NonLeaf<Integer, Long>) t.root()).key(0));
+            assertEquals(key - 1, (int) ((NonLeaf<Integer, Long>) factory.cursor().start(t.root())).key(0));
+            assertNull(pinned.insert(-1, -1L, new Insertion()));
+            assertEquals(-1L, (long) t.findFirst(-1));
+            assertEquals(101, t.count(-1, 100));
+        }
+    }
+
+    @Test
+    public void testNonLeafAppendOptimizedSplitOnlyOnTheRightEdge() throws Exception {
+        try (BPlusTree<Integer, Long> t = BPlusTree //
+                .file() //
+                .directory("target/facfile") //
+                .clearDirectory() //
+                .maxKeys(8) //
+                .appendOptimizedSplits() //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.LONG) //
+                .naturalOrder()) {
+            Factory<Integer, Long> factory = t.factory();
+            for (boolean rightEdge : new boolean[] { true, false }) {
+                // a full non-leaf with one key in each leaf
+                NonLeaf<Integer, Long> n = factory.createNonLeaf();
+                Leaf<Integer, Long> previous = null;
+                for (int i = 0; i <= 8; i++) {
+                    Leaf<Integer, Long> leaf = factory.createLeaf();
+                    leaf.insert(i * 10, (long) i, new Insertion());
+                    n.setChild(i, leaf);
+                    n.setCount(i, 1);
+                    if (previous != null) {
+                        n.setKey(i - 1, i * 10);
+                        previous.setNext(leaf);
+                        leaf.setPrevious(previous);
+                    }
+                    previous = leaf;
+                }
+                n.setNumKeys(8);
+                if (!rightEdge) {
+                    Leaf<Integer, Long> next = factory.createLeaf();
+                    previous.setNext(next);
+                    next.setPrevious(previous);
+                }
+                Split<Integer, Long> split = n.insert(1000, 1000L, new Insertion());
+                assertEquals(rightEdge ? 6 : 4, split.left.numKeys());
+            }
+        }
+    }
+
     private BPlusTree<Integer, Long> create() {
         return BPlusTree //
                 .file() //
@@ -0,0 +1,30 @@
+package com.github.davidmoten.bplustree;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LargeByteBufferTest {
+
+    @Test
+    public void testDefaultAbsoluteMethodsLeavePositionUnchanged() {
+        // implements only the relative methods
+        LargeByteBuffer b = new LargeByteBufferDelegating();
+        b.position(5);
+        b.put(0, (byte) 1);
+        b.putShort(1, (short) 2);
+        b.putInt(3, 3);
+        b.putLong(7, 4);
+        b.put(15, new byte[] { 9, 5, 6, 9 }, 1, 2);
+        assertEquals(5, b.position());
+        assertEquals(1, b.get(0));
+        assertEquals(2, b.getShort(1));
+        assertEquals(3, b.getInt(3));
+        assertEquals(4, b.getLong(7));
+        byte[] bytes = new byte[4];
+        b.get(15, bytes, 1, 2);
+        assertArrayEquals(new byte[] { 0, 5, 6, 0 }, bytes);
+        assertEquals(5, b.position());
+    }
+}
@@ -1,6 +1,8 @@
 package com.github.davidmoten.bplustree;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -11,6 +13,17 @@ import com.github.davidmoten.bplustree.internal.LargeMappedByteBuffer;
 
 public class SerializerTest {
 
+    @Test
+    public void testIsFixedSize() {
+        assertTrue(Serializer.SHORT.isFixedSize());
+        assertTrue(Serializer.INTEGER.isFixedSize());
+        assertTrue(Serializer.LONG.isFixedSize());
+        assertTrue(Serializer.FLOAT.isFixedSize());
+        assertTrue(Serializer.DOUBLE.isFixedSize());
+        assertFalse(Serializer.utf8().isFixedSize());
+        assertFalse(Serializer.bytes(8).isFixedSize());
+    }
+
     @Test
     public void testLong() throws IOException {
         assertEquals(8, Serializer.LONG.maxSize());
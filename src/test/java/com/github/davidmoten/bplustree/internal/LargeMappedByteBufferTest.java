@@ -2,9 +2,17 @@ package com.github.davidmoten.bplustree.internal;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
@@ -197,6 +205,313 @@ public class LargeMappedByteBufferTest {
         }
     }
 
+    @Test
+    public void testWriteAndReadManySegmentsOutOfOrder() throws IOException {
+        int n = 100;
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), 8, "index-")) {
+            for (int i = n - 1; i >= 0; i--) {
+                b.position(i * 8L);
+                b.putLong(i);
+            }
+            for (int i = 0; i < n; i++) {
+                b.position(i * 8L);
+                assertEquals(i, b.getLong());
+            }
+        }
+    }
+
+    @Test
+    public void testAbsoluteReadsAndWritesAcrossSegments() throws IOException {
+        for (int size = 1; size <= 3 * Long.BYTES + 1; size++) {
+            try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), size, "index-")) {
+                b.putLong(0, 10);
+                b.putInt(8, 11);
+                b.putShort(12, (short) 12);
+                b.put(14, (byte) 13);
+                b.put(15, new byte[] { 1, 2, 3, 4, 5 }, 1, 3);
+                assertEquals(0, b.position());
+                assertEquals(10, b.getLong(0));
+                assertEquals(11, b.getInt(8));
+                assertEquals(12, b.getShort(12));
+                assertEquals(13, b.get(14));
+                byte[] bytes = new byte[4];
+                b.get(15, bytes, 1, 3);
+                assertArrayEquals(new byte[] { 0, 2, 3, 4 }, bytes);
+                assertEquals(0, b.position());
+                // relative reads see the absolute writes
+                assertEquals(10, b.getLong());
+                assertEquals(11, b.getInt());
+            }
+        }
+    }
+
+    @Test
+    public void testBoundedSegmentsEvictsAndRemaps() throws IOException {
+        int n = 100;
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), 8, "index-", 3)) {
+            for (int i = 0; i < n; i++) {
+                b.position(i * 8L);
+                b.putLong(i);
+            }
+            assertEquals(n - 3, b.stats().evictions());
+            for (int i = n - 1; i >= 0; i--) {
+                b.position(i * 8L);
+                assertEquals(i, b.getLong());
+            }
+            assertEquals(2 * n - 3, b.stats().misses());
+        }
+    }
+
+    @Test
+    public void testUnpinnedSegmentIsEvictedOnceAllPinsAreRemoved() throws IOException {
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), 8, "index-", 2)) {
+            // two pins of the same segment
+            b.pin(0);
+            b.pin(4);
+            b.unpin(0);
+            for (int i = 0; i < 10; i++) {
+                b.putLong(i * 8L, i);
+            }
+            long misses = b.stats().misses();
+            assertEquals(0, b.getLong(0));
+            assertEquals(misses, b.stats().misses());
+            b.unpin(4);
+            for (int i = 1; i < 10; i++) {
+                assertEquals(i, b.getLong(i * 8L));
+            }
+            misses = b.stats().misses();
+            assertEquals(0, b.getLong(0));
+            assertEquals(misses + 1, b.stats().misses());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnpinWithoutPinThrows() throws IOException {
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), 8, "index-", 2)) {
+            b.unpin(0);
+        }
+    }
+
+    @Test
+    public void testPinnedSegmentIsNotEvicted() throws IOException {
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), 8, "index-", 2)) {
+            b.pin(0);
+            for (int i = 0; i < 10; i++) {
+                b.position(i * 8L);
+                b.putLong(i);
+            }
+            long misses = b.stats().misses();
+            b.position(0);
+            assertEquals(0, b.getLong());
+            assertEquals(misses, b.stats().misses());
+        }
+    }
+
+    @Test
+    public void testCommitForcesOnlyDirtySegments() throws IOException {
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), 8, "index-")) {
+            for (int i = 0; i < 10; i++) {
+                b.position(i * 8L);
+                b.putLong(i);
+            }
+            assertEquals(10, b.numDirtySegments());
+            b.commit();
+            assertEquals(0, b.numDirtySegments());
+            // reads and empty writes don't dirty segments
+            b.position(0);
+            b.getLong();
+            b.put(new byte[0]);
+            assertEquals(0, b.numDirtySegments());
+            // long straddles two segments
+            b.position(20);
+            b.putLong(1);
+            assertEquals(2, b.numDirtySegments());
+            b.commit();
+            assertEquals(0, b.numDirtySegments());
+        }
+    }
+
+    @Test
+    public void testViewHasOwnPositionAndSegmentsAreStillEvicted() throws IOException {
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), 8, "index-", 2)) {
+            for (int i = 0; i < 10; i++) {
+                b.position(i * 8L);
+                b.putLong(i);
+            }
+            long evictions = b.stats().evictions();
+            try (LargeMappedByteBuffer view = b.view()) {
+                b.position(0);
+                for (int i = 9; i >= 0; i--) {
+                    view.position(i * 8L);
+                    assertEquals(i, view.getLong());
+                    assertTrue(b.numMappedAndPreallocatedSegments() <= 2);
+                }
+                assertEquals(0, b.position());
+                assertTrue(b.stats().evictions() > evictions);
+            }
+        }
+    }
+
+    @Test
+    public void testReadWhileViewsReadOnOtherThreads() throws Exception {
+        File directory = Testing.newDirectory();
+        int n = 1000;
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(directory, 8, "index-")) {
+            for (int i = 0; i < n; i++) {
+                b.putLong(i * 8L, i);
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(directory, 8, "index-")) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                LargeMappedByteBuffer view = b.view();
+                futures.add(executor.submit(() -> {
+                    try (LargeMappedByteBuffer v = view) {
+                        for (int i = 0; i < n; i++) {
+                            assertEquals(i, v.getLong(i * 8L));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (int i = n - 1; i >= 0; i--) {
+                assertEquals(i, b.getLong(i * 8L));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            // every segment was mapped once whichever thread reached it first
+            assertEquals(n, b.stats().misses());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBoundedWhileViewsReadOnOtherThreads() throws Exception {
+        File directory = Testing.newDirectory();
+        int n = 1000;
+        int maxMappedSegments = 16;
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(directory, 8, "index-")) {
+            for (int i = 0; i < n; i++) {
+                b.putLong(i * 8L, i);
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(directory, 8, "index-", maxMappedSegments)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                LargeMappedByteBuffer view = b.view();
+                futures.add(executor.submit(() -> {
+                    try (LargeMappedByteBuffer v = view) {
+                        for (int j = 0; j < 3; j++) {
+                            for (int i = 0; i < n; i++) {
+                                assertEquals(i, v.getLong(i * 8L));
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (int i = n - 1; i >= 0; i--) {
+                assertEquals(i, b.getLong(i * 8L));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            // each view holds at most half the maximum so the others are evicted
+            assertTrue(b.stats().evictions() > 0);
+            assertTrue(b.numMappedAndPreallocatedSegments() <= 4 * maxMappedSegments / 2 + 1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testViewIsReadOnly() throws IOException {
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), 8, "index-");
+                LargeMappedByteBuffer view = b.view()) {
+            b.putLong(0, 1234);
+            assertReadOnly(() -> view.put(0, (byte) 1));
+            assertReadOnly(() -> view.putShort(0, (short) 1));
+            assertReadOnly(() -> view.putInt(0, 1));
+            try {
+                view.putLong(0, 1);
+            } finally {
+                // the shared segment must not have been written to
+                assertEquals(1234, b.getLong(0));
+                assertEquals(1234, view.getLong(0));
+            }
+        }
+    }
+
+    private static void assertReadOnly(Runnable write) {
+        try {
+            write.run();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPreallocatesSegmentsAhead() throws IOException {
+        File directory = Testing.newDirectory();
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(directory, 8, "index-", 0, 2, true)) {
+            b.position(0);
+            b.putLong(0);
+            for (int i = 1; i < 10; i++) {
+                b.position(i * 8L);
+                b.putLong(i);
+            }
+            for (int i = 0; i < 10; i++) {
+                b.position(i * 8L);
+                assertEquals(i, b.getLong());
+            }
+            // the two segments after the last written are being created ahead of
+            // time
+            assertEquals(12, b.numMappedAndPreallocatedSegments());
+        }
+        // and are deleted on close because they were not used
+        assertTrue(new File(directory, "index-9").exists());
+        assertFalse(new File(directory, "index-10").exists());
+        assertFalse(new File(directory, "index-11").exists());
+    }
+
+    @Test
+    public void testPreallocatedSegmentsCountTowardsMaxMappedSegments() throws IOException {
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), 8, "index-", 3, 4,
+                false)) {
+            for (int i = 0; i < 20; i++) {
+                b.putLong(i * 8L, i);
+                assertTrue(b.numMappedAndPreallocatedSegments() <= 3);
+            }
+            for (int i = 0; i < 20; i++) {
+                assertEquals(i, b.getLong(i * 8L));
+            }
+        }
+    }
+
+    @Test
+    public void testDeleteSegment() throws IOException {
+        File directory = Testing.newDirectory();
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(directory, 8, "value-")) {
+            for (int i = 0; i < 3; i++) {
+                b.putLong(i * 8L, i);
+            }
+            LargeMappedByteBuffer view = b.view();
+            // an open view may be reading the segment
+            assertFalse(b.deleteSegment(1));
+            assertTrue(new File(directory, "value-1").exists());
+            view.close();
+            assertTrue(b.deleteSegment(1));
+            assertFalse(new File(directory, "value-1").exists());
+            assertEquals(0, b.getLong(0));
+            assertEquals(2, b.getLong(16));
+        }
+    }
+
     @Test
     public void testCheckFileWhenFileDoesNotExistDoesNotThrow() throws IOException {
         File file = new File("target/doesNotExist");
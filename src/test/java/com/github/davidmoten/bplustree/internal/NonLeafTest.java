@@ -63,10 +63,20 @@ public class NonLeafTest {
             }
 
             @Override
-            public Split<Integer, Integer> insert(Integer key, Integer value) {
+            public long count() {
+                return 0;
+            }
+
+            @Override
+            public Split<Integer, Integer> insert(Integer key, Integer value, Insertion insertion) {
                 return null;
             }
 
+            @Override
+            public long remove(Removal<Integer, Integer> removal) {
+                return 0;
+            }
+
         };
 
     }